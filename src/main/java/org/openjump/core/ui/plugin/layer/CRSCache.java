@@ -0,0 +1,146 @@
+package org.openjump.core.ui.plugin.layer;
+
+import org.cts.CRSFactory;
+import org.cts.Identifier;
+import org.cts.crs.CRSException;
+import org.cts.crs.CoordinateReferenceSystem;
+import org.cts.crs.GeodeticCRS;
+import org.cts.op.CoordinateOperation;
+import org.cts.op.CoordinateOperationException;
+import org.cts.op.CoordinateOperationFactory;
+import org.cts.registry.EPSGRegistry;
+import org.cts.registry.IGNFRegistry;
+import org.cts.registry.RegistryException;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of CoordinateReferenceSystems, keyed by registry and
+ * code, and of the most precise CoordinateOperation between two of them.
+ * Both caches are bounded and evict the least recently used entries.
+ * This class is thread-safe.
+ */
+public final class CRSCache {
+
+    private static final CRSCache INSTANCE = new CRSCache(
+            Integer.getInteger("cts.cache.crs", 256),
+            Integer.getInteger("cts.cache.operations", 128));
+
+    private final CRSFactory crsFactory = new CRSFactory();
+    private final Map<String,CoordinateReferenceSystem> crsMap;
+    private final Map<String,CoordinateOperation> operationMap;
+
+    private final AtomicLong crsHits = new AtomicLong();
+    private final AtomicLong crsMisses = new AtomicLong();
+    private final AtomicLong operationHits = new AtomicLong();
+    private final AtomicLong operationMisses = new AtomicLong();
+
+    CRSCache(int crsCapacity, int operationCapacity) {
+        crsFactory.getRegistryManager().addRegistry(new EPSGRegistry());
+        crsFactory.getRegistryManager().addRegistry(new IGNFRegistry());
+        crsMap = lruMap(crsCapacity);
+        operationMap = lruMap(operationCapacity);
+    }
+
+    public static CRSCache getInstance() {
+        return INSTANCE;
+    }
+
+    private static <V> Map<String,V> lruMap(final int capacity) {
+        return new LinkedHashMap<String,V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the CoordinateReferenceSystem identified by code in registry
+     * (EPSG or IGNF).
+     */
+    public CoordinateReferenceSystem getCRS(String registry, String code)
+            throws RegistryException, CRSException {
+        String key = registry + ":" + code;
+        CoordinateReferenceSystem crs;
+        synchronized (crsMap) {
+            crs = crsMap.get(key);
+        }
+        if (crs != null) {
+            crsHits.incrementAndGet();
+            return crs;
+        }
+        crsMisses.incrementAndGet();
+        synchronized (crsFactory) {
+            crs = crsFactory.getRegistryManager().getRegistry(registry)
+                    .getCoordinateReferenceSystem(new Identifier(registry, code, null));
+        }
+        synchronized (crsMap) {
+            crsMap.put(key, crs);
+        }
+        return crs;
+    }
+
+    /**
+     * Returns the most precise CoordinateOperation from srcCRS to tgtCRS, or
+     * null if CTS cannot find any.
+     */
+    public CoordinateOperation getOperation(CoordinateReferenceSystem srcCRS, CoordinateReferenceSystem tgtCRS)
+            throws CoordinateOperationException {
+        String key = getKey(srcCRS) + " -> " + getKey(tgtCRS);
+        CoordinateOperation op;
+        synchronized (operationMap) {
+            op = operationMap.get(key);
+        }
+        if (op != null) {
+            operationHits.incrementAndGet();
+            return op;
+        }
+        operationMisses.incrementAndGet();
+        Collection<CoordinateOperation> ops = CoordinateOperationFactory
+                .createCoordinateOperations((GeodeticCRS) srcCRS, (GeodeticCRS) tgtCRS);
+        if (ops.size() == 0) return null;
+        op = CoordinateOperationFactory.getMostPrecise(ops);
+        synchronized (operationMap) {
+            operationMap.put(key, op);
+        }
+        return op;
+    }
+
+    private static String getKey(CoordinateReferenceSystem crs) {
+        return crs.getAuthorityName() + ":" + crs.getAuthorityKey();
+    }
+
+    public long getCRSHits() {
+        return crsHits.get();
+    }
+
+    public long getCRSMisses() {
+        return crsMisses.get();
+    }
+
+    public long getOperationHits() {
+        return operationHits.get();
+    }
+
+    public long getOperationMisses() {
+        return operationMisses.get();
+    }
+
+    public void clear() {
+        synchronized (crsMap) {
+            crsMap.clear();
+        }
+        synchronized (operationMap) {
+            operationMap.clear();
+        }
+    }
+
+    public String toString() {
+        return "CRSCache[crs hits=" + crsHits + " misses=" + crsMisses +
+                ", operation hits=" + operationHits + " misses=" + operationMisses + "]";
+    }
+}
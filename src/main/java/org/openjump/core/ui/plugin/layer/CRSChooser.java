@@ -0,0 +1,96 @@
+package org.openjump.core.ui.plugin.layer;
+
+import com.vividsolutions.jump.workbench.Logger;
+import com.vividsolutions.jump.workbench.plugin.EnableCheck;
+import com.vividsolutions.jump.workbench.ui.MultiInputDialog;
+
+import javax.swing.*;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Rows of a MultiInputDialog to choose a registry, then a source and a
+ * target CRS of this registry in {@link CRSSearchComboBox}es, shared by the
+ * CTS plugins. Changing the registry switches the combo boxes to its
+ * catalog.
+ */
+final class CRSChooser {
+
+    private static final String PROTOTYPE = "abcdefghijklmnpqrstuvwxyz/0123456789";
+
+    private final MultiInputDialog dialog;
+    private final String registryField;
+    private final JComboBox<String> registryComboBox;
+    private CRSSearchComboBox sourceComboBox;
+    private CRSSearchComboBox targetComboBox;
+    private RegistryCatalog catalog;
+
+    /**
+     * Adds the registry combo box to dialog.
+     * @param registryField label and name of the registry field
+     * @param registry the registry selected first
+     */
+    CRSChooser(MultiInputDialog dialog, String registryField, String registry) throws IOException {
+        this.dialog = dialog;
+        this.registryField = registryField;
+        this.registryComboBox = dialog.addComboBox(registryField, registry, Arrays.asList("EPSG", "IGNF"), "");
+        this.catalog = RegistryCatalog.get((String)registryComboBox.getSelectedItem());
+        registryComboBox.addActionListener(e -> setRegistry((String)registryComboBox.getSelectedItem()));
+    }
+
+    private void setRegistry(String registry) {
+        try {
+            catalog = RegistryCatalog.get(registry);
+        } catch (IOException e) {
+            Logger.warn("Cannot read the " + registry + " registry", e);
+            return;
+        }
+        for (CRSSearchComboBox comboBox : new CRSSearchComboBox[]{sourceComboBox, targetComboBox}) {
+            if (comboBox == null) continue;
+            comboBox.setIndex(catalog.getSearchIndex());
+            comboBox.setSelectedItem(catalog.getKeys()[0]);
+        }
+    }
+
+    /**
+     * Adds the row of the source CRS to dialog.
+     */
+    void addSourceRow(String name, String label, String code) {
+        sourceComboBox = addRow(name, label, code);
+    }
+
+    /**
+     * Adds the row of the target CRS to dialog.
+     */
+    void addTargetRow(String name, String label, String code) {
+        targetComboBox = addRow(name, label, code);
+    }
+
+    private CRSSearchComboBox addRow(String name, String label, String code) {
+        CRSSearchComboBox comboBox = new CRSSearchComboBox(catalog.getSearchIndex(), 8);
+        comboBox.setSelectedItem(code);
+        comboBox.setPrototypeDisplayValue(PROTOTYPE);
+        dialog.addRow(name, new JLabel(label), comboBox, new EnableCheck[0], "");
+        return comboBox;
+    }
+
+    String getRegistry() {
+        return dialog.getText(registryField);
+    }
+
+    /**
+     * @return the code of the selected source CRS, or null if it is not a
+     * key of the registry
+     */
+    String getSourceCode() {
+        return catalog.getCode((String)sourceComboBox.getSelectedItem());
+    }
+
+    /**
+     * @return the code of the selected target CRS, or null if it is not a
+     * key of the registry
+     */
+    String getTargetCode() {
+        return catalog.getCode((String)targetComboBox.getSelectedItem());
+    }
+}
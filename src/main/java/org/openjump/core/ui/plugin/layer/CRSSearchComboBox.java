@@ -0,0 +1,71 @@
+package org.openjump.core.ui.plugin.layer;
+
+import javax.swing.*;
+import javax.swing.text.JTextComponent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.util.List;
+
+/**
+ * Editable combo box suggesting the codes and names of a registry matching
+ * the text typed by the user, from a shared {@link CRSSearchIndex}.
+ * Unlike a combo box holding the whole registry, its model only holds the
+ * current suggestions, so that changing the registry or typing a key does
+ * not copy nor sort the registry again.
+ */
+class CRSSearchComboBox extends JComboBox<String> {
+
+    private final int maxSuggestions;
+    private CRSSearchIndex index;
+
+    CRSSearchComboBox(CRSSearchIndex index, int maxSuggestions) {
+        this.index = index;
+        this.maxSuggestions = maxSuggestions;
+        setEditable(true);
+        setMaximumRowCount(maxSuggestions);
+        setModel(new DefaultComboBoxModel<>(index.search("", maxSuggestions).toArray(new String[0])));
+        final JTextComponent editor = (JTextComponent)getEditor().getEditorComponent();
+        editor.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyReleased(KeyEvent e) {
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_UP:
+                    case KeyEvent.VK_DOWN:
+                    case KeyEvent.VK_ENTER:
+                    case KeyEvent.VK_ESCAPE:
+                    case KeyEvent.VK_TAB:
+                        return;
+                    default:
+                        suggest(editor);
+                }
+            }
+        });
+    }
+
+    /**
+     * Replaces the index, e.g. when another registry is selected.
+     */
+    void setIndex(CRSSearchIndex index) {
+        this.index = index;
+        setModel(new DefaultComboBoxModel<>(index.search("", maxSuggestions).toArray(new String[0])));
+    }
+
+    private void suggest(JTextComponent editor) {
+        String text = editor.getText();
+        int caret = editor.getCaretPosition();
+        List<String> suggestions = index.search(text, maxSuggestions);
+        DefaultComboBoxModel<String> model = new DefaultComboBoxModel<>(suggestions.toArray(new String[0]));
+        // keep the typed text rather than selecting the first suggestion
+        model.setSelectedItem(text);
+        setModel(model);
+        editor.setText(text);
+        editor.setCaretPosition(Math.min(caret, text.length()));
+        if (suggestions.isEmpty() || !isShowing()) {
+            hidePopup();
+        } else {
+            // resize the popup to the new suggestions
+            hidePopup();
+            showPopup();
+        }
+    }
+}
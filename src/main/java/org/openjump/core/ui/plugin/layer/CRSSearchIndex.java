@@ -0,0 +1,253 @@
+package org.openjump.core.ui.plugin.layer;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable search index over the codes and names of a registry catalog.
+ * A query is matched, case and accent insensitively, against :
+ * <ol>
+ *     <li>codes equal to the query</li>
+ *     <li>codes starting with the query</li>
+ *     <li>names starting with the query</li>
+ *     <li>names with a word starting with each word of the query</li>
+ *     <li>codes or names containing the query</li>
+ * </ol>
+ * Results are ranked in this order, then by length, then in registry order.
+ * Prefix searches are binary searches in sorted arrays, and substrings are
+ * searched in a single string concatenating all codes and names.
+ */
+final class CRSSearchIndex {
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    // code and name (or null) of each CRS, in registry order
+    private final String[] codes;
+    private final String[] names;
+    private final String[][] tokens;
+    // normalized codes, names and name tokens, sorted, with their CRS
+    private final String[] sortedCodes;
+    private final int[] codeEntries;
+    private final String[] sortedNames;
+    private final int[] nameEntries;
+    private final String[] sortedTokens;
+    private final int[] tokenEntries;
+    // normalized "code\tname\n" of all CRSs, and the offset of each of them
+    private final String text;
+    private final int[] offsets;
+
+    /**
+     * @param keys codes and names of the catalog
+     * @param keyCodes the code each key refers to
+     */
+    CRSSearchIndex(String[] keys, String[] keyCodes) {
+        Map<String,String> map = new LinkedHashMap<>();
+        for (int i = 0 ; i < keys.length ; i++) {
+            if (!map.containsKey(keyCodes[i])) map.put(keyCodes[i], null);
+            if (!keys[i].equals(keyCodes[i]) && map.get(keyCodes[i]) == null) map.put(keyCodes[i], keys[i]);
+        }
+        int size = map.size();
+        codes = map.keySet().toArray(new String[0]);
+        names = map.values().toArray(new String[0]);
+        tokens = new String[size][];
+
+        String[] normalizedCodes = new String[size];
+        String[] normalizedNames = new String[size];
+        int tokenCount = 0;
+        StringBuilder sb = new StringBuilder();
+        offsets = new int[size + 1];
+        for (int i = 0 ; i < size ; i++) {
+            normalizedCodes[i] = normalize(codes[i]);
+            normalizedNames[i] = names[i] == null ? "" : normalize(names[i]);
+            tokens[i] = tokenize(normalizedNames[i]);
+            tokenCount += tokens[i].length;
+            offsets[i] = sb.length();
+            sb.append(normalizedCodes[i]).append('\t').append(normalizedNames[i]).append('\n');
+        }
+        offsets[size] = sb.length();
+        text = sb.toString();
+
+        String[] tokenKeys = new String[tokenCount];
+        int[] tokenOwners = new int[tokenCount];
+        for (int i = 0, t = 0 ; i < size ; i++) {
+            for (String token : tokens[i]) {
+                tokenKeys[t] = token;
+                tokenOwners[t++] = i;
+            }
+        }
+        int[] all = new int[size];
+        for (int i = 0 ; i < size ; i++) all[i] = i;
+        codeEntries = sort(normalizedCodes, all);
+        sortedCodes = get(normalizedCodes, codeEntries);
+        int[] named = Arrays.stream(all).filter(i -> !normalizedNames[i].isEmpty()).toArray();
+        nameEntries = sort(normalizedNames, named);
+        sortedNames = get(normalizedNames, nameEntries);
+        int[] tokenOrder = new int[tokenCount];
+        for (int i = 0 ; i < tokenCount ; i++) tokenOrder[i] = i;
+        tokenOrder = sort(tokenKeys, tokenOrder);
+        sortedTokens = get(tokenKeys, tokenOrder);
+        tokenEntries = new int[tokenCount];
+        for (int i = 0 ; i < tokenCount ; i++) tokenEntries[i] = tokenOwners[tokenOrder[i]];
+    }
+
+    /**
+     * @return indices sorted by their key (stable)
+     */
+    private static int[] sort(String[] keys, int[] indices) {
+        return Arrays.stream(indices).boxed()
+                .sorted(Comparator.comparing((Integer i) -> keys[i]))
+                .mapToInt(Integer::intValue).toArray();
+    }
+
+    private static String[] get(String[] keys, int[] indices) {
+        String[] result = new String[indices.length];
+        for (int i = 0 ; i < indices.length ; i++) result[i] = keys[indices[i]];
+        return result;
+    }
+
+    static String normalize(String s) {
+        boolean ascii = true;
+        for (int i = 0 ; i < s.length() && ascii ; i++) ascii = s.charAt(i) < 128;
+        if (ascii) return s.toLowerCase(Locale.ROOT).trim();
+        return MARKS.matcher(Normalizer.normalize(s, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT).trim();
+    }
+
+    private static String[] tokenize(String normalized) {
+        return normalized.isEmpty() ? new String[0] :
+                Arrays.stream(SEPARATORS.split(normalized)).filter(t -> !t.isEmpty()).toArray(String[]::new);
+    }
+
+    int size() {
+        return codes.length;
+    }
+
+    /**
+     * @return at most max codes or names matching query, best matches first.
+     * Codes are returned for code matches, names (if any) otherwise, so that
+     * each result is a key of the catalog. An empty query returns the first
+     * CRSs of the registry.
+     */
+    List<String> search(String query, int max) {
+        List<String> results = new ArrayList<>(max);
+        String q = query == null ? "" : normalize(query);
+        if (q.isEmpty()) {
+            for (int i = 0 ; i < codes.length && results.size() < max ; i++) results.add(getKey(i, false));
+            return results;
+        }
+        BitSet found = new BitSet(codes.length);
+        Tier tier = new Tier(found);
+
+        int from = lowerBound(sortedCodes, q);
+        if (from < sortedCodes.length && sortedCodes[from].equals(q)) tier.add(codeEntries[from], 0);
+        collect(tier.flush(), results, max, true);
+
+        for (int i = from ; i < sortedCodes.length && sortedCodes[i].startsWith(q) ; i++) {
+            tier.add(codeEntries[i], sortedCodes[i].length());
+        }
+        collect(tier.flush(), results, max, true);
+
+        for (int i = lowerBound(sortedNames, q) ; i < sortedNames.length && sortedNames[i].startsWith(q) ; i++) {
+            tier.add(nameEntries[i], sortedNames[i].length());
+        }
+        collect(tier.flush(), results, max, false);
+
+        String[] words = tokenize(q);
+        if (words.length > 0 && results.size() < max) {
+            for (int i = lowerBound(sortedTokens, words[0]) ;
+                 i < sortedTokens.length && sortedTokens[i].startsWith(words[0]) ; i++) {
+                int entry = tokenEntries[i];
+                if (matchesAllWords(entry, words)) tier.add(entry, names[entry].length());
+            }
+            collect(tier.flush(), results, max, false);
+        }
+
+        for (int pos = text.indexOf(q) ; pos >= 0 && results.size() < max ; pos = text.indexOf(q, pos + 1)) {
+            int entry = Arrays.binarySearch(offsets, pos);
+            if (entry < 0) entry = -entry - 2;
+            if (!found.get(entry)) {
+                found.set(entry);
+                // code match if the query is found before the tab
+                boolean code = pos + q.length() <= offsets[entry] + codes[entry].length();
+                results.add(getKey(entry, code));
+            }
+        }
+        return results;
+    }
+
+    private boolean matchesAllWords(int entry, String[] words) {
+        for (String word : words) {
+            boolean match = false;
+            for (String token : tokens[entry]) {
+                if (token.startsWith(word)) {
+                    match = true;
+                    break;
+                }
+            }
+            if (!match) return false;
+        }
+        return true;
+    }
+
+    private void collect(long[] tier, List<String> results, int max, boolean code) {
+        for (int i = 0 ; i < tier.length && results.size() < max ; i++) {
+            results.add(getKey((int)tier[i], code));
+        }
+    }
+
+    private String getKey(int entry, boolean code) {
+        return code || names[entry] == null ? codes[entry] : names[entry];
+    }
+
+    /**
+     * @return the index of the first element of sorted not lower than key
+     */
+    private static int lowerBound(String[] sorted, String key) {
+        int i = Arrays.binarySearch(sorted, key);
+        if (i < 0) return -i - 1;
+        while (i > 0 && sorted[i - 1].equals(key)) i--;
+        return i;
+    }
+
+    /**
+     * CRSs of a rank, sorted by length then registry order, each CRS
+     * appearing only in its best rank.
+     */
+    private static final class Tier {
+
+        private final BitSet found;
+        private long[] entries = new long[16];
+        private int size;
+
+        Tier(BitSet found) {
+            this.found = found;
+        }
+
+        void add(int entry, int length) {
+            if (found.get(entry)) return;
+            found.set(entry);
+            if (size == entries.length) entries = Arrays.copyOf(entries, 2 * size);
+            entries[size++] = ((long)length << 32) | entry;
+        }
+
+        /**
+         * @return the entries of this tier, sorted, with their length in the
+         * high bits (to be cast to int), and empties this tier
+         */
+        long[] flush() {
+            long[] sorted = Arrays.copyOf(entries, size);
+            Arrays.sort(sorted);
+            size = 0;
+            return sorted;
+        }
+    }
+}
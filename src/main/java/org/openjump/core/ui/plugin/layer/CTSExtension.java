@@ -7,6 +7,8 @@ import com.vividsolutions.jump.workbench.plugin.PlugInContext;
 /**
  * Created by Michaël on 30/11/14.
  */
+// 1.2.0 (2026-10-18) faster engine (kernels, grid, memo), snapshot of the selected kernels,
+//                    raster and on-the-fly reprojection, error policy, shared TransformationService
 // 1.1.0 (2021-08-08) refactoring for new I18N and FeatureInstaller
 // 1.0.0 (2021-04-07) migration to OpenJUMP2 / JTS 1.18 / CTS 1.5.2
 // 0.1.3 (2017-01-21) suggesttree moved to OpenJUMP, CTSPlugIn 0.1.3 needs OJ 1.10+
@@ -20,7 +22,7 @@ public class CTSExtension extends Extension {
     }
 
     public String getVersion() {
-        return "1.1.0 (2021-08-08)";
+        return "1.2.0 (2026-10-18)";
     }
 
     public void configure(PlugInContext context) throws Exception {
@@ -35,6 +37,9 @@ public class CTSExtension extends Extension {
         if (missing_libraries) return;
 
         new CTSPlugIn().initialize(context);
+        new CTSRasterPlugIn().initialize(context);
+        TransformationService.getInstance().register(context.getWorkbenchContext());
+        CTSPrewarmer.start();
     }
 
 }
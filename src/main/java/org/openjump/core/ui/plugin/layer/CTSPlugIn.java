@@ -7,32 +7,25 @@ import com.vividsolutions.jump.feature.Feature;
 import com.vividsolutions.jump.task.TaskMonitor;
 import com.vividsolutions.jump.workbench.Logger;
 import com.vividsolutions.jump.workbench.model.Layer;
-import com.vividsolutions.jump.workbench.model.Layerable;
 import com.vividsolutions.jump.workbench.model.UndoableCommand;
 import com.vividsolutions.jump.workbench.plugin.*;
 import com.vividsolutions.jump.workbench.ui.GUIUtil;
 import com.vividsolutions.jump.workbench.ui.HTMLFrame;
 import com.vividsolutions.jump.workbench.ui.MenuNames;
 import com.vividsolutions.jump.workbench.ui.MultiInputDialog;
-import com.vividsolutions.jump.workbench.ui.SuggestTreeComboBox;
-import org.cts.CRSFactory;
-import org.cts.Identifier;
 import org.cts.crs.CRSException;
 import org.cts.crs.CoordinateReferenceSystem;
-import org.cts.crs.GeodeticCRS;
 import org.cts.op.*;
 import org.cts.registry.*;
 import org.cts.units.Unit;
-import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.CoordinateFilter;
 import org.locationtech.jts.geom.Geometry;
 import org.openjump.core.ccordsys.srid.SRIDStyle;
 
 import javax.swing.*;
 import java.awt.geom.NoninvertibleTransformException;
-import java.io.IOException;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.*;
 
 /**
  * PlugIn to transform coordinates using Coordinate Transformation Suite (CTS)
@@ -61,6 +54,20 @@ public class CTSPlugIn extends ThreadedBasePlugIn implements Iconified, EnableCh
     private final String INVALID_TGT_CRS    = i18n.get("CTSPlugIn.invalid-tgt-crs");
     private final String SOURCE_PROJECTION  = i18n.get("CTSPlugIn.srcProjection");
     private final String TARGET_PROJECTION  = i18n.get("CTSPlugIn.tgtProjection");
+    private final String PARALLEL           = i18n.get("CTSPlugIn.parallel");
+    private final String IN_PLACE           = i18n.get("CTSPlugIn.in-place");
+    private final String METRICS            = i18n.get("CTSPlugIn.metrics");
+    private final String APPROXIMATE        = i18n.get("CTSPlugIn.approximate");
+    private final String MAX_ERROR          = i18n.get("CTSPlugIn.max-error");
+    private final String INVALID_MAX_ERROR  = i18n.get("CTSPlugIn.invalid-max-error");
+    private final String DETECT_SOURCES     = i18n.get("CTSPlugIn.detect-sources");
+    private final String DISPATCH_SRID      = i18n.get("CTSPlugIn.dispatch-srid");
+    private final String DEDUPLICATE        = i18n.get("CTSPlugIn.deduplicate");
+    private final String DISPLAY_ONLY       = i18n.get("CTSPlugIn.display-only");
+    private final String ERROR_POLICY       = i18n.get("CTSPlugIn.error-policy");
+    private final String FAIL_FAST          = i18n.get("CTSPlugIn.fail-fast");
+    private final String SKIP_FEATURE       = i18n.get("CTSPlugIn.skip-feature");
+    private final String MARK_NAN           = i18n.get("CTSPlugIn.mark-nan");
 
     private static final String EPSG = "EPSG";
     private static final String IGNF = "IGNF";
@@ -68,7 +75,28 @@ public class CTSPlugIn extends ThreadedBasePlugIn implements Iconified, EnableCh
     String registry = EPSG;
     String srcCode = "4326";
     String tgtCode = "4326";
-    final Map<String,String> codes = new LinkedHashMap<>(64);
+    boolean parallel = true;
+    boolean inPlace = false;
+    // display the layers in the target CRS, keeping their native coordinates
+    boolean displayOnly = false;
+    // memory budget of the transformed features displayed for each layer
+    long displayMaxBytes = Long.getLong("cts.display.max-mb", 128) << 20;
+    // use the CRS of each layer as its source, the source code being only a default
+    boolean detectSources = false;
+    // transform each geometry from the EPSG CRS given by its SRID, if any
+    boolean dispatchSRID = false;
+    // interpolate dense layers on an adaptive grid within maxError meters
+    boolean approximate = false;
+    double maxError = 0.001;
+    // transform the vertices shared by several features once
+    boolean deduplicate = false;
+    // what to do with the features which cannot be transformed
+    ErrorReport.Policy errorPolicy = ErrorReport.Policy.SKIP_FEATURE;
+    // memory budget of the coordinates remembered during a run, shared by
+    // the layers transformed at the same time
+    long memoMaxBytes = Long.getLong("cts.memo.max-mb", 256) << 20;
+    // number of coordinates above which undo only keeps packed ordinates
+    int packedUndoThreshold = Integer.getInteger("cts.undo.packed-threshold", 1000000);
 
     public void initialize(PlugInContext context) {
 
@@ -104,245 +132,536 @@ public class CTSPlugIn extends ThreadedBasePlugIn implements Iconified, EnableCh
             }
         }
 
-        final JComboBox<String> registry_cb = dialog.addComboBox(REGISTRY, registry, Arrays.asList("EPSG", "IGNF"),"");
-
-        codes.clear();
-        codes.putAll(getAvailableCRS(context, (String) registry_cb.getSelectedItem()));
-
-        final SuggestTreeComboBox srcCodesCB = new SuggestTreeComboBox(codes.keySet().toArray(new String[0]), 8);
-        srcCodesCB.setSelectedItem(srcCode);
-        srcCodesCB.setPrototypeDisplayValue("abcdefghijklmnpqrstuvwxyz/0123456789");
-        dialog.addRow(SOURCE, new JLabel(SOURCE_LABEL), srcCodesCB, new EnableCheck[0], "");
-
-        final SuggestTreeComboBox tgtCodesCB = new SuggestTreeComboBox(codes.keySet().toArray(new String[0]), 8);
-        tgtCodesCB.setSelectedItem(tgtCode);
-        tgtCodesCB.setPrototypeDisplayValue("abcdefghijklmnpqrstuvwxyz/0123456789");
-        dialog.addRow(TARGET, new JLabel(TARGET_LABEL), tgtCodesCB, new EnableCheck[0], "");
-
-        registry_cb.addActionListener(e -> {
-            try {
-                codes.clear();
-                codes.putAll(getAvailableCRS(context, (String) registry_cb.getSelectedItem()));
-                srcCodesCB.changeModel(codes.keySet().toArray(new String[0]));
-                tgtCodesCB.changeModel(codes.keySet().toArray(new String[0]));
-                srcCodesCB.setSelectedItem(codes.keySet().iterator().next());
-                tgtCodesCB.setSelectedItem(codes.keySet().iterator().next());
-            } catch(RegistryException | CRSException | IOException t) {
-                t.printStackTrace();
-            }
-
-        });
+        final CRSChooser chooser = new CRSChooser(dialog, REGISTRY, registry);
+        chooser.addSourceRow(SOURCE, SOURCE_LABEL, srcCode);
+        detectSources = isHeterogeneous(context.getSelectedLayers());
+        dialog.addCheckBox(DETECT_SOURCES, detectSources);
+        dialog.addCheckBox(DISPATCH_SRID, dispatchSRID);
+        chooser.addTargetRow(TARGET, TARGET_LABEL, tgtCode);
+
+        dialog.addCheckBox(PARALLEL, parallel);
+        dialog.addCheckBox(IN_PLACE, inPlace);
+        dialog.addCheckBox(DISPLAY_ONLY, displayOnly);
+        dialog.addCheckBox(APPROXIMATE, approximate);
+        dialog.addDoubleField(MAX_ERROR, maxError, 8);
+        dialog.addCheckBox(DEDUPLICATE, deduplicate);
+        final List<String> policies = Arrays.asList(FAIL_FAST, SKIP_FEATURE, MARK_NAN);
+        dialog.addComboBox(ERROR_POLICY, policies.get(errorPolicy.ordinal()), policies, "");
 
         GUIUtil.centreOnWindow(dialog);
         dialog.setVisible(true);
         if (dialog.wasOKPressed()) {
-            registry = dialog.getText(REGISTRY);
-            srcCode = codes.get(srcCodesCB.getSelectedItem());
-            tgtCode = codes.get(tgtCodesCB.getSelectedItem());
+            registry = chooser.getRegistry();
+            srcCode = chooser.getSourceCode();
+            tgtCode = chooser.getTargetCode();
+            detectSources = dialog.getBoolean(DETECT_SOURCES);
+            dispatchSRID = dialog.getBoolean(DISPATCH_SRID);
+            parallel = dialog.getBoolean(PARALLEL);
+            inPlace = dialog.getBoolean(IN_PLACE);
+            displayOnly = dialog.getBoolean(DISPLAY_ONLY);
+            approximate = dialog.getBoolean(APPROXIMATE);
+            maxError = dialog.getDouble(MAX_ERROR);
+            deduplicate = dialog.getBoolean(DEDUPLICATE);
+            errorPolicy = ErrorReport.Policy.values()[policies.indexOf(dialog.getText(ERROR_POLICY))];
             return true;
         }
         return false;
     }
 
     public void run(TaskMonitor monitor, PlugInContext context)
-            throws RegistryException, CRSException, CoordinateOperationException {
+            throws RegistryException, CRSException, CoordinateOperationException, InterruptedException {
+        monitor.allowCancellationRequests();
         reportNothingToUndoYet(context);
-        if (srcCode == null) {
-            throw new RegistryException(INVALID_SRC_CRS);
-        } else if (tgtCode == null) {
+        if (tgtCode == null) {
             throw new RegistryException(INVALID_TGT_CRS);
         }
-        if (!tgtCode.equals(srcCode)) {
-            CRSFactory crsFactory = new CRSFactory();
-            RegistryManager registryManager = crsFactory.getRegistryManager();
-            if (registry.equals("EPSG")) {
-                registryManager.addRegistry(new EPSGRegistry());
-            } else if (registry.equals("IGNF")) {
-                registryManager.addRegistry(new IGNFRegistry());
+        if (approximate && !(maxError > 0 && maxError < Double.POSITIVE_INFINITY)) {
+            context.getWorkbenchFrame().warnUser(INVALID_MAX_ERROR + " : " + maxError);
+            return;
+        }
+        Layer[] layers = context.getLayerNamePanel().getSelectedLayers();
+        if (!detectSources && isHeterogeneous(layers)) {
+            context.getWorkbenchFrame().warnUser(HETEROGEN_SRC);
+            return;
+        }
+        // Group layers by source code, in the order of the selection
+        Map<String,List<Layer>> groups = new LinkedHashMap<>();
+        for (Layer layer : layers) {
+            // SRIDs of layers are EPSG codes
+            String code = detectSources && registry.equals(EPSG) ? getSourceCode(layer) : null;
+            if (code == null) code = srcCode;
+            if (code == null) throw new RegistryException(INVALID_SRC_CRS);
+            if (code.equals(tgtCode)) continue;
+            groups.computeIfAbsent(code, k -> new ArrayList<>()).add(layer);
+        }
+        if (groups.isEmpty()) return;
+
+        ReprojectionMetrics metrics = new ReprojectionMetrics();
+        long t0 = System.nanoTime();
+        CRSCache cache = CRSCache.getInstance();
+        CoordinateReferenceSystem tgtCRS = cache.getCRS(registry, tgtCode);
+        // a source which cannot be resolved is reported and its layers are
+        // left unchanged, the other groups being transformed
+        Map<String,CoordinateReferenceSystem> srcCRSs = new LinkedHashMap<>();
+        for (Iterator<String> it = groups.keySet().iterator() ; it.hasNext() ; ) {
+            String code = it.next();
+            try {
+                srcCRSs.put(code, cache.getCRS(registry, code));
+            } catch (RegistryException | CRSException e) {
+                Logger.warn(INVALID_SRC_CRS + " : " + registry + ":" + code + " " + groups.get(code), e);
+                context.getWorkbenchFrame().warnUser(INVALID_SRC_CRS + " (" + registry + ":" + code + ")");
+                it.remove();
             }
-            CoordinateReferenceSystem srcCRS = registryManager.getRegistry(registry)
-                    .getCoordinateReferenceSystem(new Identifier(registry, srcCode, null));
-            CoordinateReferenceSystem tgtCRS = registryManager.getRegistry(registry)
-                    .getCoordinateReferenceSystem(new Identifier(registry, tgtCode, null));
+        }
+        if (groups.isEmpty()) return;
+        metrics.crsLookupNanos = System.nanoTime() - t0;
+        if (displayOnly) {
+            display(context, groups, srcCRSs, tgtCRS);
+            return;
+        }
+
+        commitChanges(monitor, context, groups, srcCRSs, tgtCRS, metrics);
+        metrics.end();
+        for (ReprojectionMetrics.LayerMetrics layerMetrics : metrics.getLayers()) {
+            Logger.info(layerMetrics.name + " : " + layerMetrics);
+        }
+        Logger.info(getName() + " : " + metrics);
+        if (!monitor.isCancelRequested()) {
+            ReprojectionStats.getInstance().add(metrics);
+            report(context, groups, srcCRSs, tgtCRS, metrics);
+        }
+        Logger.debug(cache.toString());
+    }
 
-            commitChanges(monitor, context, srcCRS, tgtCRS);
-            report(context, srcCRS, tgtCRS);
+    /**
+     * @return the EPSG code of the source CRS of layer, from the coordinate
+     * system of its schema or from its SRIDStyle, or null if it is unknown
+     */
+    static String getSourceCode(Layer layer) {
+        CoordinateSystem cs = layer.getFeatureCollectionWrapper().getFeatureSchema().getCoordinateSystem();
+        try {
+            if (cs != null && cs != CoordinateSystem.UNSPECIFIED && cs.getEPSGCode() > 0) {
+                return Integer.toString(cs.getEPSGCode());
+            }
+        } catch (UnsupportedOperationException e) {
+            Logger.warn(e.getMessage());
         }
+        SRIDStyle sridStyle = (SRIDStyle)layer.getStyle(SRIDStyle.class);
+        return sridStyle != null && sridStyle.getSRID() > 0 ? Integer.toString(sridStyle.getSRID()) : null;
     }
 
+    /**
+     * @return true if layers have differing coordinate systems or SRIDStyles
+     */
+    static boolean isHeterogeneous(Layer[] layers) {
+        if (layers.length == 0) return false;
+        Layer layer = layers[0];
+        CoordinateSystem cs = layer.getFeatureCollectionWrapper().getFeatureSchema().getCoordinateSystem();
+        SRIDStyle srid = (SRIDStyle) layer.getStyle(SRIDStyle.class);
+        for (int i = 1; i < layers.length; i++) {
+            layer = layers[i];
+            CoordinateSystem csi = layer.getFeatureCollectionWrapper().getFeatureSchema().getCoordinateSystem();
+            SRIDStyle sridi = (SRIDStyle) layer.getStyle(SRIDStyle.class);
+            if (cs == csi && srid == sridi) continue;
+            if (cs == null && csi != null) return true;
+            if (cs != null && csi == null) return true;
+            if (cs == CoordinateSystem.UNSPECIFIED && csi != CoordinateSystem.UNSPECIFIED) return true;
+            if (cs != CoordinateSystem.UNSPECIFIED && csi == CoordinateSystem.UNSPECIFIED) return true;
+            try {
+                if (cs != null && csi != null && cs.getEPSGCode() != csi.getEPSGCode()) return true;
+            } catch (UnsupportedOperationException e) {
+                Logger.warn(e.getMessage());
+            }
+            if (srid != null && sridi != null && srid.getSRID() != sridi.getSRID()) return true;
+        }
+        return false;
+    }
 
+    /**
+     * Adds a view of each layer reprojected on the fly into tgtCRS, the
+     * layers themselves being left unchanged.
+     */
+    private void display(final PlugInContext context,
+                         final Map<String,List<Layer>> groups,
+                         final Map<String,CoordinateReferenceSystem> srcCRSs,
+                         final CoordinateReferenceSystem tgtCRS) throws CoordinateOperationException {
+        CoordinateSystem cs = new CoordinateSystemWrapper(tgtCRS);
+        for (Map.Entry<String,List<Layer>> group : groups.entrySet()) {
+            ReprojectionEngine engine = TransformationService.getInstance()
+                    .findEngine(srcCRSs.get(group.getKey()), tgtCRS);
+            if (engine == null) {
+                context.getWorkbenchFrame().warnUser(OP_NOT_FOUND + " (" + srcCRSs.get(group.getKey()) + ")");
+                continue;
+            }
+            for (Layer layer : group.getValue()) {
+                ReprojectedFeatureCollection.createView(context.getLayerManager(), layer,
+                        layer.getName() + " (" + registry + ":" + tgtCode + ")", engine, cs, displayMaxBytes);
+            }
+        }
+    }
 
     // Commit reprojection as an undoable transaction
     private void commitChanges(final TaskMonitor monitor,
                                final PlugInContext context,
-                               final CoordinateReferenceSystem srcCRS,
-                               final CoordinateReferenceSystem tgtCRS) throws CoordinateOperationException {
-
-        // Short-circuits for cases where transformation cannot be done
-        CoordinateOperation coordinateOperation = getOperation(srcCRS, tgtCRS);
-        if (coordinateOperation == null) {
-            context.getWorkbenchFrame().warnUser(OP_NOT_FOUND);
-            return;
+                               final Map<String,List<Layer>> groups,
+                               final Map<String,CoordinateReferenceSystem> srcCRSs,
+                               final CoordinateReferenceSystem tgtCRS,
+                               final ReprojectionMetrics metrics)
+            throws CoordinateOperationException, InterruptedException {
+
+        // Resolve the operation of each source once. Short-circuits the
+        // sources for which transformation cannot be done
+        long t0 = System.nanoTime();
+        final Map<Layer,ReprojectionEngine> engines = new LinkedHashMap<>();
+        for (Map.Entry<String,List<Layer>> group : groups.entrySet()) {
+            ReprojectionEngine engine = TransformationService.getInstance()
+                    .findEngine(srcCRSs.get(group.getKey()), tgtCRS);
+            if (engine == null) {
+                context.getWorkbenchFrame().warnUser(OP_NOT_FOUND + " (" + srcCRSs.get(group.getKey()) + ")");
+                continue;
+            }
+            for (Layer layer : group.getValue()) engines.put(layer, engine);
         }
-        Layer[] layers = context.getLayerNamePanel().getSelectedLayers();
-        if (layers.length == 0) {
-            // Should never reach here if the plugin has been called from UI
+        metrics.operationSelectionNanos = System.nanoTime() - t0;
+        if (engines.isEmpty()) {
+            // Should never reach here with layers if the plugin has been called from UI
             return;
         }
 
         // Prepare parameters and data structures for transaction
-        final CoordinateFilter filter = getCoordinateFilter(coordinateOperation);
-        boolean epsg = tgtCRS.getAuthorityName().equalsIgnoreCase(EPSG);
-        int epsgCode = epsg ? Integer.parseInt(tgtCRS.getAuthorityKey()) : 0;
-        CoordinateSystemWrapper newCoordinateSystem = new CoordinateSystemWrapper(tgtCRS);
-        final Map<String,ArrayList<Geometry>> srcGeometryMap = new HashMap<>();
-        final Map<String,ArrayList<Geometry>> tgtGeometryMap = new HashMap<>();
-        final Map<String,CoordinateSystem> oldCoordinateSystems = new HashMap<>();
-        final Map<String,SRIDStyle> oldSridStyles = new HashMap<>();
-        final Map<String,CoordinateSystem> newCoordinateSystems = new HashMap<>();
-
-        // Start transaction
+        final Layer[] layers = engines.keySet().toArray(new Layer[0]);
+        long numPoints = 0;
+        for (Layer layer : layers) {
+            ReprojectionMetrics.LayerMetrics layerMetrics = metrics.getLayer(layer.getName());
+            List<Feature> features = layer.getFeatureCollectionWrapper().getFeatures();
+            layerMetrics.features = features.size();
+            for (Feature feature : features) {
+                layerMetrics.coordinates += feature.getGeometry().getNumPoints();
+            }
+            numPoints += layerMetrics.coordinates;
+        }
+        final boolean packed = inPlace || numPoints > packedUndoThreshold;
+        ReprojectionCommand cmd = new ReprojectionCommand(context, layers,
+                new CoordinateSystemWrapper(tgtCRS), packed, metrics);
+        // source geometries of the layers transformed in place
+        final Map<Layer,GeometrySnapshot> srcSnapshots = new ConcurrentHashMap<>();
+
+        // Start transaction : layers are transformed concurrently, and each
+        // layer is committed as soon as it is transformed, in the order of
+        // the selection, so that the view can refresh it
         context.getLayerManager().getUndoableEditReceiver().reportNothingToUndoYet();
-        for (Layer layer : context.getSelectedLayers()) {
-            oldCoordinateSystems.put(layer.getName(), layer.getFeatureCollectionWrapper().getFeatureSchema().getCoordinateSystem());
-            ArrayList<Geometry> srcGeometries = new ArrayList<>();
-            ArrayList<Geometry> tgtGeometries = new ArrayList<>();
-            int count = 0;
-            monitor.report(TRANSFORM + " " + layer.getName());
-            for (Object object : layer.getFeatureCollectionWrapper().getFeatures()) {
-                Geometry srcGeom = ((Feature)object).getGeometry();
-                srcGeometries.add(srcGeom);
-                Geometry tgtGeom = srcGeom.copy();
-                tgtGeom.apply(filter);
-                tgtGeom.setSRID(epsgCode);
-                tgtGeom.geometryChanged();
-                tgtGeometries.add(tgtGeom);
-                if (++count % 100 == 0) monitor.report(count, layer.getFeatureCollectionWrapper().getFeatures().size(), "");
+        int nproc = Runtime.getRuntime().availableProcessors();
+        int layerThreads = parallel ? Math.min(layers.length, nproc) : 1;
+        // at most layerThreads layer memos are in use at the same time
+        final long layerMemoBytes = memoMaxBytes / layerThreads;
+        ExecutorService layerExecutor = Executors.newFixedThreadPool(layerThreads, r -> {
+            Thread thread = new Thread(r, "CTS layer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Future<ArrayList<Geometry>>> futures = new ArrayList<>();
+        boolean exceptionOccurred = true;
+        int committed = 0;
+        // closed once the layer threads are done, as they share its workers
+        final ParallelGeometryTransformer parallelTransformer = new ParallelGeometryTransformer(
+                parallel ? nproc : 1, inPlace);
+        try {
+            for (final Layer layer : layers) {
+                futures.add(layerExecutor.submit(() ->
+                        transform(layer, engines.get(layer), parallelTransformer, layerMemoBytes,
+                                srcSnapshots, monitor, metrics)));
             }
-            srcGeometryMap.put(layer.getName(), srcGeometries);
-            tgtGeometryMap.put(layer.getName(), tgtGeometries);
-            oldSridStyles.put(layer.getName(), (SRIDStyle)layer.getStyle(SRIDStyle.class));
-            oldCoordinateSystems.put(layer.getName(), layer.getFeatureCollectionWrapper().getFeatureSchema().getCoordinateSystem());
-            newCoordinateSystems.put(layer.getName(), newCoordinateSystem);
-        }
-        UndoableCommand cmd = new UndoableCommand(getName()) {
-            public void execute() {
-                boolean isFiringEvents = context.getLayerManager().isFiringEvents();
-                context.getLayerManager().setFiringEvents(false);
-                for (Layer layer : context.getSelectedLayers()) {
-                    monitor.report(REPLACE + " " + layer.getName());
-                    List<Feature> features = layer.getFeatureCollectionWrapper().getFeatures();
-                    ArrayList<Geometry> geometries = tgtGeometryMap.get(layer.getName());
-                    CoordinateSystem cs = newCoordinateSystems.get(layer.getName());
-                    for (int i = 0 ; i < features.size() ; i++) {
-                        Feature feature = features.get(i);
-                        feature.setGeometry(geometries.get(i));
+            for (int i = 0 ; i < layers.length ; i++) {
+                Layer layer = layers[i];
+                ArrayList<Geometry> tgtGeometries = getResult(futures.get(i));
+                monitor.report(REPLACE + " " + layer.getName());
+                t0 = System.nanoTime();
+                if (tgtGeometries == null || !cmd.commit(layer,
+                        inPlace ? srcSnapshots.get(layer) : GeometrySnapshot.of(tgtGeometries), inPlace, monitor)) {
+                    // Cancelled by the user : wait for the other layers, restore
+                    // the layers transformed in place and not committed yet,
+                    // then the layers already committed
+                    for (Future<?> future : futures) waitQuietly(future);
+                    for (int j = i ; j < layers.length ; j++) {
+                        GeometrySnapshot srcSnapshot = srcSnapshots.get(layers[j]);
+                        if (srcSnapshot != null) srcSnapshot.restore(layers[j].getFeatureCollectionWrapper().getFeatures());
                     }
-                    Layer.tryToInvalidateEnvelope(layer);
-                    layer.removeStyle(layer.getStyle(SRIDStyle.class));
-                    SRIDStyle sridStyle = new SRIDStyle();
-                    sridStyle.setSRID(cs.getEPSGCode());
-                    layer.addStyle(sridStyle);
-                    layer.getFeatureCollectionWrapper().getFeatureSchema().setCoordinateSystem(cs);
-                    layer.setFeatureCollectionModified(true);
+                    cmd.rollback();
+                    exceptionOccurred = false;
+                    return;
                 }
-                context.getLayerManager().setFiringEvents(isFiringEvents);
-                try {
-                    context.getLayerViewPanel().getViewport().zoomToFullExtent();
-                } catch(NoninvertibleTransformException e) {
-                    e.printStackTrace();
+                metrics.getLayer(layer.getName()).replaceNanos = System.nanoTime() - t0;
+                committed++;
+            }
+            exceptionOccurred = false;
+        }
+        finally {
+            // the layers which have not started yet are dropped, the running
+            // ones are interrupted and stop at their next feature
+            for (Runnable pending : layerExecutor.shutdownNow()) ((Future<?>)pending).cancel(false);
+            try {
+                if (exceptionOccurred) {
+                    // e.g. a failure with the FAIL_FAST policy : the layers
+                    // transformed in place and not committed are restored too,
+                    // once no layer thread may modify them any more
+                    for (Future<?> future : futures) waitQuietly(future);
+                    for (int j = committed ; j < layers.length ; j++) {
+                        GeometrySnapshot srcSnapshot = srcSnapshots.get(layers[j]);
+                        if (srcSnapshot != null) srcSnapshot.restore(layers[j].getFeatureCollectionWrapper().getFeatures());
+                    }
+                    cmd.rollback();
+                    context.getLayerManager().getUndoableEditReceiver()
+                            .getUndoManager().discardAllEdits();
                 }
+            } finally {
+                parallelTransformer.close();
             }
+        }
+        cmd.zoomToFullExtent();
+        context.getLayerManager().getUndoableEditReceiver().receive(cmd.toUndoableEdit());
+        Logger.debug(numPoints + " coordinates transformed, packed undo : " + packed);
+    }
 
-            public void unexecute() {
-                boolean isFiringEvents = context.getLayerManager().isFiringEvents();
-                context.getLayerManager().setFiringEvents(false);
-                for (Layer layer : context.getSelectedLayers()) {
-                    List<Feature> features = layer.getFeatureCollectionWrapper().getFeatures();
-                    ArrayList<Geometry> geometries = srcGeometryMap.get(layer.getName());
-                    CoordinateSystem cs = oldCoordinateSystems.get(layer.getName());
-                    for (int i = 0 ; i < features.size() ; i++) {
-                        Feature feature = features.get(i);
-                        feature.setGeometry(geometries.get(i));
-                    }
-                    Layer.tryToInvalidateEnvelope(layer);
-                    layer.removeStyle(layer.getStyle(SRIDStyle.class));
-                    if (oldSridStyles.get(layer.getName()) != null) layer.addStyle(oldSridStyles.get(layer.getName()));
-                    layer.getFeatureCollectionWrapper().getFeatureSchema().setCoordinateSystem(cs);
-                    layer.setFeatureCollectionModified(true);
+    /**
+     * Transforms the geometries of layer with engine, in a layer thread. In
+     * place, the source geometries are first put into srcSnapshots.
+     * @param memoBytes memory budget of the deduplication memo of the layer
+     * @return the transformed geometries, or null if the user cancelled
+     */
+    private ArrayList<Geometry> transform(Layer layer, ReprojectionEngine engine,
+                                          ParallelGeometryTransformer parallelTransformer, long memoBytes,
+                                          Map<Layer,GeometrySnapshot> srcSnapshots,
+                                          TaskMonitor monitor, ReprojectionMetrics metrics)
+            throws InterruptedException {
+        if (monitor.isCancelRequested()) return null;
+        List<Feature> features = layer.getFeatureCollectionWrapper().getFeatures();
+        ReprojectionMetrics.LayerMetrics layerMetrics = metrics.getLayer(layer.getName());
+        long t0 = System.nanoTime();
+        GridCoordinateTransformer grid = approximate ?
+                engine.approximate(layer.getFeatureCollectionWrapper().getEnvelope(), maxError) : null;
+        // each layer has its own transformer to count its own failures
+        CoordinateSequenceTransformer transformer = grid == null ? engine.getTransformer().copy() : grid;
+        DeduplicatingCoordinateTransformer deduplicator = null;
+        if (deduplicate) {
+            transformer = deduplicator =
+                    new DeduplicatingCoordinateTransformer(transformer, layerMetrics.coordinates, memoBytes);
+        }
+        if (dispatchSRID && engine.getTargetSRID() > 0) {
+            transformer = new SRIDDispatchTransformer(transformer, engine.getSourceSRID(), engine.getTargetSRID());
+        }
+        monitor.report(TRANSFORM + " " + layer.getName());
+        // In place, source geometries are modified : keep their packed
+        // ordinates to be able to undo or to rollback a cancellation
+        if (inPlace) srcSnapshots.put(layer, GeometrySnapshot.take(features, true));
+        ErrorReport errors = new ErrorReport(layer.getName(), errorPolicy);
+        ArrayList<Geometry> tgtGeometries = parallelTransformer.transform(features, transformer,
+                engine.getTargetSRID(), errors, monitor);
+        if (tgtGeometries == null) return null;
+        // features which could not be transformed in place are put back
+        if (inPlace && !errors.isEmpty() && errorPolicy == ErrorReport.Policy.SKIP_FEATURE) {
+            srcSnapshots.get(layer).restore(features, errors.getIndices());
+        }
+        layerMetrics.transformNanos = System.nanoTime() - t0;
+        layerMetrics.failures = transformer.getFailureCount();
+        if (grid != null) layerMetrics.approximation = grid.toString();
+        if (deduplicator != null) layerMetrics.deduplication = deduplicator.toString();
+        if (!errors.isEmpty()) {
+            layerMetrics.errors = errors.toString();
+            Logger.warn(layer.getName() + " : " + errors);
+        }
+        return tgtGeometries;
+    }
+
+    private static <T> T getResult(Future<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+            if (e.getCause() instanceof Error) throw (Error)e.getCause();
+            if (e.getCause() instanceof InterruptedException) throw (InterruptedException)e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static void waitQuietly(Future<?> future) throws InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException | CancellationException e) {
+            Logger.debug(e.toString());
+        }
+    }
+
+    /**
+     * Undoable reprojection of a set of layers. On the first execution,
+     * layers are committed one by one by commitChanges as soon as they are
+     * transformed, and can be rolled back if the user cancels ; the command
+     * is registered once all layers have been committed.
+     */
+    private class ReprojectionCommand extends UndoableCommand {
+
+        private final PlugInContext context;
+        private final Layer[] layers;
+        private final CoordinateSystem newCoordinateSystem;
+        private final boolean packed;
+        private final ReprojectionMetrics metrics;
+        // geometries to put in each layer on next execute or unexecute
+        private final Map<String,GeometrySnapshot> snapshots = new HashMap<>();
+        private final Map<String,CoordinateSystem> oldCoordinateSystems = new HashMap<>();
+        private final Map<String,SRIDStyle> oldSridStyles = new HashMap<>();
+        private final List<Layer> committed = new ArrayList<>();
+
+        ReprojectionCommand(PlugInContext context, Layer[] layers, CoordinateSystem newCoordinateSystem,
+                            boolean packed, ReprojectionMetrics metrics) {
+            super(CTSPlugIn.this.getName());
+            this.context = context;
+            this.layers = layers;
+            this.newCoordinateSystem = newCoordinateSystem;
+            this.packed = packed;
+            this.metrics = metrics;
+        }
+
+        /**
+         * Puts the transformed geometries of snapshot into layer, or, if the
+         * layer has been transformed in place, keeps snapshot as the source
+         * geometries, then sets the target coordinate system.
+         * @return false if the user cancelled, the layer being left unchanged
+         */
+        boolean commit(Layer layer, GeometrySnapshot snapshot, boolean transformedInPlace, TaskMonitor monitor) {
+            oldCoordinateSystems.put(layer.getName(), layer.getFeatureCollectionWrapper().getFeatureSchema().getCoordinateSystem());
+            oldSridStyles.put(layer.getName(), (SRIDStyle)layer.getStyle(SRIDStyle.class));
+            snapshots.put(layer.getName(), snapshot);
+            if (!transformedInPlace && !swap(layer, monitor)) return false;
+            setCoordinateSystem(layer, newCoordinateSystem, null);
+            committed.add(layer);
+            return true;
+        }
+
+        /**
+         * Reverts the layers committed so far.
+         */
+        void rollback() {
+            for (int i = committed.size() - 1 ; i >= 0 ; i--) {
+                Layer layer = committed.get(i);
+                swap(layer, null);
+                setCoordinateSystem(layer, oldCoordinateSystems.get(layer.getName()),
+                        oldSridStyles.get(layer.getName()));
+            }
+            committed.clear();
+        }
+
+        public void execute() {
+            for (Layer layer : layers) {
+                long t0 = System.nanoTime();
+                swap(layer, null);
+                setCoordinateSystem(layer, newCoordinateSystem, null);
+                metrics.getLayer(layer.getName()).replaceNanos = System.nanoTime() - t0;
+            }
+            zoomToFullExtent();
+        }
+
+        public void unexecute() {
+            for (Layer layer : layers) {
+                swap(layer, null);
+                setCoordinateSystem(layer, oldCoordinateSystems.get(layer.getName()),
+                        oldSridStyles.get(layer.getName()));
+            }
+            zoomToFullExtent();
+        }
+
+        /**
+         * Exchanges the geometries of layer with the snapshot kept for it.
+         * @return false if the user cancelled, the layer being left unchanged
+         */
+        private boolean swap(Layer layer, TaskMonitor monitor) {
+            List<Feature> features = layer.getFeatureCollectionWrapper().getFeatures();
+            GeometrySnapshot current = GeometrySnapshot.take(features, packed);
+            if (!snapshots.get(layer.getName()).restore(features, monitor)) {
+                current.restore(features);
+                return false;
+            }
+            snapshots.put(layer.getName(), current);
+            return true;
+        }
+
+        /**
+         * Sets the coordinate system and the SRIDStyle of layer (a new one
+         * if sridStyle is null), rebuilds its spatial index if it has one,
+         * then lets the view refresh the layer.
+         */
+        private void setCoordinateSystem(Layer layer, CoordinateSystem cs, SRIDStyle sridStyle) {
+            boolean isFiringEvents = context.getLayerManager().isFiringEvents();
+            context.getLayerManager().setFiringEvents(false);
+            try {
+                Layer.tryToInvalidateEnvelope(layer);
+                // the features stay the same objects : the listeners are told
+                // of the new geometries by the appearance change below, even
+                // if the layer gets a new collection (see LayerIndex)
+                LayerIndex.rebuild(layer);
+                layer.removeStyle(layer.getStyle(SRIDStyle.class));
+                if (sridStyle == null && cs == newCoordinateSystem) {
+                    sridStyle = new SRIDStyle();
+                    sridStyle.setSRID(cs.getEPSGCode());
                 }
+                if (sridStyle != null) layer.addStyle(sridStyle);
+                layer.getFeatureCollectionWrapper().getFeatureSchema().setCoordinateSystem(cs);
+                layer.setFeatureCollectionModified(true);
+            } finally {
                 context.getLayerManager().setFiringEvents(isFiringEvents);
-                try {
-                    context.getLayerViewPanel().getViewport().zoomToFullExtent();
-                } catch(NoninvertibleTransformException e) {
-                    e.printStackTrace();
-                }
             }
-        };
-        boolean exceptionOccurred = true;
-        try {
-            cmd.execute();
-            exceptionOccurred = false;
+            if (isFiringEvents) layer.fireAppearanceChanged();
         }
-        finally {
-            if (exceptionOccurred) {
-                context.getLayerManager().getUndoableEditReceiver()
-                        .getUndoManager().discardAllEdits();
+
+        void zoomToFullExtent() {
+            try {
+                context.getLayerViewPanel().getViewport().zoomToFullExtent();
+            } catch(NoninvertibleTransformException e) {
+                e.printStackTrace();
             }
         }
-        context.getLayerManager().getUndoableEditReceiver().receive(cmd.toUndoableEdit());
     }
 
-    private void report(PlugInContext context, CoordinateReferenceSystem srcCRS, CoordinateReferenceSystem tgtCRS)
+    private void report(PlugInContext context, Map<String,List<Layer>> groups,
+                        Map<String,CoordinateReferenceSystem> srcCRSs, CoordinateReferenceSystem tgtCRS,
+                        ReprojectionMetrics metrics)
             throws CoordinateOperationException{
         HTMLFrame html = context.getOutputFrame();
         html.createNewDocument();
         html.setTitle(getName());
         html.append("<h2>" + TRANSFORMED_LAYERS + "</h2>");
         html.append(Arrays.toString(context.getSelectedLayers()));
-        html.append("<h2>" + SOURCE_LABEL + "</h2>");
-        html.addField(SOURCE_LABEL, srcCRS.toString());
-        html.addField(SOURCE_DATUM, srcCRS.getDatum().toString());
-        html.addField(SOURCE_TOWGS84, srcCRS.getDatum().getToWGS84().toString());
-        html.addField(SOURCE_SPHEROID, (srcCRS.getDatum()).getEllipsoid().toString());
-        html.addField(SOURCE_PROJECTION, srcCRS.getProjection() == null ? "null" : srcCRS.getProjection().toWKT(Unit.METER));
+        for (Map.Entry<String,CoordinateReferenceSystem> source : srcCRSs.entrySet()) {
+            CoordinateReferenceSystem srcCRS = source.getValue();
+            html.append("<h2>" + SOURCE_LABEL + "</h2>");
+            html.addField(SOURCE_LABEL, srcCRS.toString());
+            html.addField(TRANSFORMED_LAYERS, groups.get(source.getKey()).toString());
+            html.addField(SOURCE_DATUM, srcCRS.getDatum().toString());
+            html.addField(SOURCE_TOWGS84, srcCRS.getDatum().getToWGS84().toString());
+            html.addField(SOURCE_SPHEROID, (srcCRS.getDatum()).getEllipsoid().toString());
+            html.addField(SOURCE_PROJECTION, srcCRS.getProjection() == null ? "null" : srcCRS.getProjection().toWKT(Unit.METER));
+        }
         html.append("<h2>" + TARGET_LABEL + "</h2>");
         html.addField(TARGET_LABEL, tgtCRS.toString());
         html.addField(TARGET_DATUM, tgtCRS.getDatum().toString());
         html.addField(TARGET_TOWGS84, tgtCRS.getDatum().getToWGS84().toString());
-        html.addField(TARGET_SPHEROID, (srcCRS.getDatum()).getEllipsoid().toString());
+        html.addField(TARGET_SPHEROID, (tgtCRS.getDatum()).getEllipsoid().toString());
         html.addField(TARGET_PROJECTION, tgtCRS.getProjection() == null ? "null" : tgtCRS.getProjection().toWKT(Unit.METER));
         html.append("<h2>" + getName() + "</h2>");
-        html.addField("", getOperation(srcCRS, tgtCRS).toString().replaceAll("\n","<br>"));
+        for (CoordinateReferenceSystem srcCRS : srcCRSs.values()) {
+            CoordinateOperation op = getOperation(srcCRS, tgtCRS);
+            html.addField(srcCRSs.size() > 1 ? srcCRS.toString() : "",
+                    op == null ? OP_NOT_FOUND : op.toString().replaceAll("\n","<br>"));
+        }
+        html.append("<h2>" + METRICS + "</h2>");
+        for (ReprojectionMetrics.LayerMetrics layerMetrics : metrics.getLayers()) {
+            html.addField(layerMetrics.name, layerMetrics.toString());
+        }
+        html.addField("", metrics.toString());
     }
 
     private CoordinateOperation getOperation(final CoordinateReferenceSystem srcCRS,
                                              final CoordinateReferenceSystem tgtCRS)
             throws CoordinateOperationException{
-        Collection<CoordinateOperation> ops = CoordinateOperationFactory
-                .createCoordinateOperations((GeodeticCRS) srcCRS, (GeodeticCRS) tgtCRS);
-        return ops.size() == 0 ? null : CoordinateOperationFactory.getMostPrecise(ops);
-    }
-
-    private CoordinateFilter getCoordinateFilter(final CoordinateOperation op) {
-        return new CoordinateFilter() {
-            @Override
-            public void filter(Coordinate coordinate) {
-                try {
-                    double[] xyz = op.transform(new double[]{coordinate.x, coordinate.y, coordinate.z});
-                    coordinate.setOrdinate(0, xyz[0]);
-                    coordinate.setOrdinate(1, xyz[1]);
-                    if (xyz.length > 2) coordinate.setOrdinate(2, xyz[2]);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-        };
-    }
-
-    private Map<String,String> getAvailableCRS(PlugInContext context, String registry)
-            throws IOException, RegistryException, CRSException {
-        return RegistryReader.read(registry);
+        return CRSCache.getInstance().getOperation(srcCRS, tgtCRS);
     }
 
     EnableCheck getEnableCheck(final PlugInContext context) {
@@ -351,42 +670,9 @@ public class CTSPlugIn extends ThreadedBasePlugIn implements Iconified, EnableCh
                 .add(factory.createTaskWindowMustBeActiveCheck())
                 .add(factory.createAtLeastNLayersMustBeSelectedCheck(1))
                 .add(factory.createSelectedLayersMustBeEditableCheck())
-                .add(factory.createSelectedLayerablesMustBeVectorLayers())
-                .add(new EnableCheck() {
-                    @Override
-                    public String check(JComponent component) {
-                        Layerable[] layerables = context.getLayerableNamePanel()
-                                .selectedNodes(Layerable.class).toArray(new Layerable[0]);
-                        if (layerables.length > 0) {
-                            Layer layer = (Layer) layerables[0];
-                            CoordinateSystem cs = layer.getFeatureCollectionWrapper().getFeatureSchema().getCoordinateSystem();
-                            SRIDStyle srid = (SRIDStyle) layer.getStyle(SRIDStyle.class);
-                            for (int i = 1; i < layerables.length; i++) {
-                                layer = (Layer) layerables[i];
-                                CoordinateSystem csi = layer.getFeatureCollectionWrapper().getFeatureSchema().getCoordinateSystem();
-                                SRIDStyle sridi = (SRIDStyle) layer.getStyle(SRIDStyle.class);
-                                if (cs == csi && srid == sridi) continue;
-                                if (cs == null && csi != null) return HETEROGEN_SRC;
-                                if (cs != null && csi == null) return HETEROGEN_SRC;
-                                if (cs == CoordinateSystem.UNSPECIFIED && csi != CoordinateSystem.UNSPECIFIED)
-                                    return HETEROGEN_SRC;
-                                if (cs != CoordinateSystem.UNSPECIFIED && csi == CoordinateSystem.UNSPECIFIED)
-                                    return HETEROGEN_SRC;
-                                try {
-                                    if (cs != null && csi != null && cs.getEPSGCode() != csi.getEPSGCode())
-                                        return HETEROGEN_SRC;
-                                } catch (UnsupportedOperationException e) {
-                                    Logger.warn(e.getMessage());
-                                }
-                                if (srid != null && sridi != null && srid.getSRID() != sridi.getSRID())
-                                    return HETEROGEN_SRC;
-                            }
-                            return null;
-                        }
-                        // should never reach here
-                        return layerables.length > 0 ? null : "At least 1 layer must be selected";
-                    }
-                });
+                .add(factory.createSelectedLayerablesMustBeVectorLayers());
+        // layers with differing source CRSs are accepted : they are grouped
+        // by source in run, unless the source CRS is forced for all layers
     }
 
 }
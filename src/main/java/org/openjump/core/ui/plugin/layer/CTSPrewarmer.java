@@ -0,0 +1,103 @@
+package org.openjump.core.ui.plugin.layer;
+
+import com.vividsolutions.jump.workbench.Logger;
+import org.cts.crs.CoordinateReferenceSystem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads and indexes registry catalogs, then resolves frequently used CRSs
+ * and the operations between them into {@link CRSCache}, in a low priority
+ * daemon thread, so that the first use of CTSPlugIn does not pay these costs.
+ * CRSs to resolve are read from the cts.prewarm system property as a comma
+ * separated list of registry:code (an empty value disables the warm-up).
+ * The pairs of CRSs recorded in the {@link OperationSnapshot} are resolved
+ * too, into the engines of the {@link TransformationService}.
+ */
+class CTSPrewarmer implements Runnable {
+
+    static final String DEFAULT_CODES = "EPSG:4326,EPSG:2154,EPSG:3857";
+
+    private final String[] codes;
+
+    CTSPrewarmer(String codes) {
+        this.codes = codes.trim().isEmpty() ? new String[0] : codes.split(",");
+    }
+
+    /**
+     * Starts the warm-up configured by the cts.prewarm system property.
+     */
+    static void start() {
+        CTSPrewarmer prewarmer = new CTSPrewarmer(System.getProperty("cts.prewarm", DEFAULT_CODES));
+        if (prewarmer.codes.length == 0) return;
+        Thread thread = new Thread(prewarmer, "CTS warm-up");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    public void run() {
+        long t0 = System.currentTimeMillis();
+        for (String registry : new String[]{"EPSG", "IGNF"}) {
+            try {
+                RegistryCatalog.get(registry).getSearchIndex();
+            } catch (Exception e) {
+                Logger.warn("CTS warm-up : registry " + registry + " cannot be indexed", e);
+            }
+        }
+        long t1 = System.currentTimeMillis();
+        Logger.info("CTS warm-up : registry catalogs indexed in " + (t1 - t0) + " ms");
+
+        // each code and each pair is resolved independently, so that a bad
+        // code does not stop the warm-up of the others
+        CRSCache cache = CRSCache.getInstance();
+        List<CoordinateReferenceSystem> crsList = new ArrayList<>();
+        for (String code : codes) {
+            String[] registryAndCode = code.trim().split(":");
+            if (registryAndCode.length != 2) {
+                Logger.warn("CTS warm-up : invalid code " + code);
+                continue;
+            }
+            try {
+                crsList.add(cache.getCRS(registryAndCode[0], registryAndCode[1]));
+            } catch (Exception e) {
+                Logger.warn("CTS warm-up : " + code.trim() + " cannot be resolved : " + e.getMessage());
+            }
+        }
+        long t2 = System.currentTimeMillis();
+        Logger.info("CTS warm-up : " + crsList.size() + " CRS resolved in " + (t2 - t1) + " ms");
+
+        int count = 0;
+        for (CoordinateReferenceSystem src : crsList) {
+            for (CoordinateReferenceSystem tgt : crsList) {
+                if (src == tgt) continue;
+                try {
+                    if (cache.getOperation(src, tgt) != null) count++;
+                } catch (Exception e) {
+                    Logger.warn("CTS warm-up : no operation from " + src + " to " + tgt + " : " + e.getMessage());
+                }
+            }
+        }
+        long t3 = System.currentTimeMillis();
+        Logger.info("CTS warm-up : " + count + " operations resolved in " + (t3 - t2) + " ms");
+
+        // pairs used in previous sessions, with their kernels
+        count = 0;
+        for (String key : OperationSnapshot.getInstance().getKeys()) {
+            String[] pair = key.split(" -> ");
+            String[] src = pair[0].split(":");
+            String[] tgt = pair.length == 2 ? pair[1].split(":") : new String[0];
+            if (src.length != 2 || tgt.length != 2) continue;
+            try {
+                TransformationService.getInstance().findEngine(
+                        cache.getCRS(src[0], src[1]), cache.getCRS(tgt[0], tgt[1]));
+                count++;
+            } catch (Exception e) {
+                Logger.warn("CTS warm-up : " + key + " cannot be restored : " + e.getMessage());
+            }
+        }
+        long t4 = System.currentTimeMillis();
+        Logger.info("CTS warm-up : " + count + " operations of the snapshot resolved in " + (t4 - t3) + " ms");
+    }
+}
@@ -0,0 +1,162 @@
+package org.openjump.core.ui.plugin.layer;
+
+import com.vividsolutions.jump.I18N;
+import com.vividsolutions.jump.task.TaskMonitor;
+import com.vividsolutions.jump.workbench.Logger;
+import com.vividsolutions.jump.workbench.model.StandardCategoryNames;
+import com.vividsolutions.jump.workbench.plugin.*;
+import com.vividsolutions.jump.workbench.ui.GUIUtil;
+import com.vividsolutions.jump.workbench.ui.MenuNames;
+import com.vividsolutions.jump.workbench.ui.MultiInputDialog;
+import org.cts.crs.CoordinateReferenceSystem;
+import org.cts.op.CoordinateOperation;
+import org.cts.registry.RegistryException;
+import org.locationtech.jts.geom.Envelope;
+import org.openjump.core.rasterimage.RasterImageLayer;
+
+import javax.swing.*;
+import java.awt.image.Raster;
+import java.awt.Rectangle;
+import java.io.File;
+
+/**
+ * PlugIn reprojecting a raster image layer with CTS : the image is warped
+ * tile by tile (see {@link RasterWarper}) into a tiled TIFF file written next
+ * to the source image, which is then added as a new layer.
+ */
+public class CTSRasterPlugIn extends ThreadedBasePlugIn {
+
+    private final I18N i18n = I18N.getInstance("cts_plugin");
+
+    private final String REGISTRY           = i18n.get("CTSPlugIn.registry");
+    private final String SOURCE             = "source";
+    private final String SOURCE_LABEL       = i18n.get("CTSPlugIn.srcCRS");
+    private final String TARGET             = "target";
+    private final String TARGET_LABEL       = i18n.get("CTSPlugIn.tgtCRS");
+    private final String OP_NOT_FOUND       = i18n.get("CTSPlugIn.op-not-found");
+    private final String INVALID_SRC_CRS    = i18n.get("CTSPlugIn.invalid-src-crs");
+    private final String INVALID_TGT_CRS    = i18n.get("CTSPlugIn.invalid-tgt-crs");
+    private final String PARALLEL           = i18n.get("CTSPlugIn.parallel");
+    private final String TILE_SIZE          = i18n.get("CTSRasterPlugIn.tile-size");
+    private final String WARP               = i18n.get("CTSRasterPlugIn.warp");
+
+    String registry = "EPSG";
+    String srcCode = "4326";
+    String tgtCode = "4326";
+    boolean parallel = true;
+    int tileSize = RasterWarper.DEFAULT_TILE_SIZE;
+
+    public void initialize(PlugInContext context) {
+
+        context.getFeatureInstaller().addMainMenuPlugin(
+            this, new String[]{MenuNames.PLUGINS}, getName(),
+            false, getIcon(), getEnableCheck(context)
+        );
+
+    }
+
+    public String getName() {
+        return i18n.get("CTSRasterPlugIn");
+    }
+
+    public ImageIcon getIcon(){
+        return new ImageIcon(CTSPlugIn.class.getResource("world.png"));
+    }
+
+    public boolean execute(final PlugInContext context) throws Exception {
+
+        MultiInputDialog dialog = new MultiInputDialog(context.getWorkbenchFrame(), getName(), true);
+
+        final CRSChooser chooser = new CRSChooser(dialog, REGISTRY, registry);
+        chooser.addSourceRow(SOURCE, SOURCE_LABEL, srcCode);
+        chooser.addTargetRow(TARGET, TARGET_LABEL, tgtCode);
+
+        dialog.addCheckBox(PARALLEL, parallel);
+        dialog.addIntegerField(TILE_SIZE, tileSize, 6, "");
+
+        GUIUtil.centreOnWindow(dialog);
+        dialog.setVisible(true);
+        if (dialog.wasOKPressed()) {
+            registry = chooser.getRegistry();
+            srcCode = chooser.getSourceCode();
+            tgtCode = chooser.getTargetCode();
+            parallel = dialog.getBoolean(PARALLEL);
+            // TIFF tiles are multiples of 16 pixels
+            tileSize = Math.max(16, dialog.getInteger(TILE_SIZE) / 16 * 16);
+            return true;
+        }
+        return false;
+    }
+
+    public void run(TaskMonitor monitor, PlugInContext context) throws Exception {
+        monitor.allowCancellationRequests();
+        if (srcCode == null) throw new RegistryException(INVALID_SRC_CRS);
+        if (tgtCode == null) throw new RegistryException(INVALID_TGT_CRS);
+        final RasterImageLayer layer = (RasterImageLayer)context.getLayerNamePanel()
+                .selectedNodes(RasterImageLayer.class).iterator().next();
+
+        CRSCache cache = CRSCache.getInstance();
+        CoordinateReferenceSystem srcCRS = cache.getCRS(registry, srcCode);
+        CoordinateReferenceSystem tgtCRS = cache.getCRS(registry, tgtCode);
+        CoordinateOperation forward = cache.getOperation(srcCRS, tgtCRS);
+        CoordinateOperation inverse = cache.getOperation(tgtCRS, srcCRS);
+        if (forward == null || inverse == null) {
+            context.getWorkbenchFrame().warnUser(OP_NOT_FOUND);
+            return;
+        }
+
+        // a window is read to know the layout of the samples
+        Raster sample = layer.getRasterData(new Rectangle(0, 0, 1, 1));
+        RasterWarper.Grid source = new RasterWarper.Grid(layer.getWholeImageEnvelope(),
+                layer.getOrigImageWidth(), layer.getOrigImageHeight());
+        int threads = parallel ? Runtime.getRuntime().availableProcessors() : 1;
+        RasterWarper warper = new RasterWarper(forward, inverse, tileSize, threads);
+        RasterWarper.Grid target = warper.getTargetGrid(source);
+        File file = getOutputFile(layer, tgtCode);
+
+        monitor.report(WARP + " " + layer.getName());
+        long t0 = System.currentTimeMillis();
+        // RasterImageLayer does not guarantee that concurrent reads are safe :
+        // the source windows are read one at a time, the tiles being warped
+        // in parallel
+        RasterWarper.RasterSource reader = window -> {
+            synchronized (layer) {
+                return layer.getRasterData(window);
+            }
+        };
+        if (!warper.warp(reader, source, target, sample.getNumBands(),
+                sample.getDataBuffer().getDataType(), file, monitor)) {
+            return;
+        }
+        Logger.info(layer.getName() + " : " + target.width + "x" + target.height + " pixels warped in " +
+                (System.currentTimeMillis() - t0) + " ms into " + file);
+
+        Envelope envelope = target.envelope;
+        RasterImageLayer result = new RasterImageLayer(layer.getName() + " (" + registry + ":" + tgtCode + ")",
+                context.getLayerManager(), file.getAbsolutePath(), null, envelope);
+        context.getLayerManager().addLayerable(StandardCategoryNames.WORKING, result);
+    }
+
+    /**
+     * @return a TIFF file named after the image of layer and the target
+     * code, next to the image if its directory is writable, or in the
+     * temporary directory
+     */
+    private static File getOutputFile(RasterImageLayer layer, String code) {
+        String imageFileName = layer.getImageFileName();
+        File image = imageFileName == null ? null : new File(imageFileName);
+        File dir = image == null || image.getParentFile() == null || !image.getParentFile().canWrite() ?
+                new File(System.getProperty("java.io.tmpdir")) : image.getParentFile();
+        String name = image == null ? layer.getName() : image.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) name = name.substring(0, dot);
+        return new File(dir, name.replaceAll("[^\\w.-]", "_") + "_" + code + ".tif");
+    }
+
+    EnableCheck getEnableCheck(final PlugInContext context) {
+        EnableCheckFactory factory = context.getCheckFactory();
+        return new MultiEnableCheck()
+                .add(factory.createTaskWindowMustBeActiveCheck())
+                .add(factory.createExactlyNLayerablesMustBeSelectedCheck(1, RasterImageLayer.class));
+    }
+}
@@ -0,0 +1,98 @@
+package org.openjump.core.ui.plugin.layer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Command line reprojection of shapefiles and delimited text files, without
+ * a workbench. Files are processed in parallel.
+ * <pre>
+ * java -cp ... org.openjump.core.ui.plugin.layer.CTSReproject
+ *      [-registry EPSG|IGNF] -s srcCode -t tgtCode [-threads n] [-o outputDir] file...
+ * </pre>
+ * Without -o, each output file is written next to its source, with the
+ * target code appended to its name. The code is appended too if -o is the
+ * directory of the source, so that the source is never overwritten.
+ */
+public class CTSReproject {
+
+    public static void main(String[] args) throws Exception {
+        String registry = "EPSG";
+        String srcCode = null;
+        String tgtCode = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        File outputDir = null;
+        List<File> files = new ArrayList<>();
+        for (int i = 0 ; i < args.length ; i++) {
+            if (args[i].equals("-registry") && i + 1 < args.length) registry = args[++i].toUpperCase();
+            else if (args[i].equals("-s") && i + 1 < args.length) srcCode = args[++i];
+            else if (args[i].equals("-t") && i + 1 < args.length) tgtCode = args[++i];
+            else if (args[i].equals("-threads") && i + 1 < args.length) threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-o") && i + 1 < args.length) outputDir = new File(args[++i]);
+            else files.add(new File(args[i]));
+        }
+        if (srcCode == null || tgtCode == null || files.isEmpty()) {
+            System.err.println("Usage : CTSReproject [-registry EPSG|IGNF] -s srcCode -t tgtCode " +
+                    "[-threads n] [-o outputDir] file...");
+            System.exit(2);
+        }
+        if (outputDir != null && !outputDir.isDirectory() && !outputDir.mkdirs()) {
+            System.err.println("Cannot create " + outputDir);
+            System.exit(2);
+        }
+        final ReprojectionEngine engine = ReprojectionEngine.create(registry, srcCode, tgtCode);
+        System.exit(reproject(engine, files, outputDir, tgtCode, threads) ? 0 : 1);
+    }
+
+    /**
+     * Reprojects files with engine, several files at a time, the threads
+     * being shared between files.
+     * @return true if all files have been reprojected
+     */
+    static boolean reproject(final ReprojectionEngine engine, List<File> files, File outputDir,
+                             String suffix, int threads) throws InterruptedException {
+        int fileThreads = Math.max(1, Math.min(files.size(), threads));
+        final int workers = Math.max(1, threads / fileThreads);
+        long t0 = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(fileThreads);
+        List<Future<Long>> futures = new ArrayList<>();
+        for (final File file : files) {
+            final File output = getOutputFile(file, outputDir, suffix);
+            futures.add(executor.submit(() -> engine.reproject(file, output, workers)));
+        }
+        executor.shutdown();
+        boolean success = true;
+        for (int i = 0 ; i < files.size() ; i++) {
+            try {
+                long count = futures.get(i).get();
+                System.out.println(files.get(i) + " : " + count + " records reprojected (" +
+                        (System.currentTimeMillis() - t0) + " ms)");
+            } catch (ExecutionException e) {
+                System.err.println(files.get(i) + " : " + e.getCause());
+                success = false;
+            }
+        }
+        if (engine.getFailureCount() > 0) {
+            System.err.println(engine.getFailureCount() + " coordinates could not be transformed");
+        }
+        return success;
+    }
+
+    /**
+     * @return the output file of file : in outputDir with the same name, or
+     * next to file with suffix appended to its name if outputDir is null or
+     * if the output would overwrite file or one of its sidecar files (same
+     * name with another extension, e.g. .dbf and .shx of a shapefile)
+     */
+    static File getOutputFile(File file, File outputDir, String suffix) {
+        String name = file.getName();
+        if (outputDir != null && !StreamingReprojector.isSameDataset(file, new File(outputDir, name))) {
+            return new File(outputDir, name);
+        }
+        int dot = name.lastIndexOf('.');
+        name = dot < 0 ? name + "_" + suffix : name.substring(0, dot) + "_" + suffix + name.substring(dot);
+        return new File(outputDir == null ? file.getAbsoluteFile().getParentFile() : outputDir, name);
+    }
+}
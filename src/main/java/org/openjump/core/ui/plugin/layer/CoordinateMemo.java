@@ -0,0 +1,117 @@
+package org.openjump.core.ui.plugin.layer;
+
+/**
+ * Bounded map from source coordinates to transformed coordinates, keyed by
+ * the exact bits of x, y and z, with open addressing in primitive arrays.
+ * The table is split into segments locked independently, so that it may be
+ * shared by the threads transforming a layer. Its capacity is fixed when it
+ * is created : once a segment is full, new coordinates are not remembered.
+ */
+final class CoordinateMemo {
+
+    // an entry is a used flag, 3 keys and 3 values, padded to 64 bytes so
+    // that it lies in a single cache line
+    private static final int STRIDE = 8;
+    static final int ENTRY_BYTES = 8 * STRIDE;
+    private static final int SEGMENTS = 64;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    /**
+     * @param expectedEntries number of coordinates expected to be remembered
+     * @param maxBytes memory budget of the table
+     */
+    CoordinateMemo(long expectedEntries, long maxBytes) {
+        // the load factor is kept under 3/4 for the expected entries, if the
+        // budget allows it
+        long wanted = Math.min(1 << 24, Math.max(16, expectedEntries * 4 / 3 / SEGMENTS + 1));
+        long allowed = Math.min(1 << 24, Math.max(16, maxBytes / ENTRY_BYTES / SEGMENTS));
+        int segmentCapacity = (int)Math.min(Long.highestOneBit(wanted - 1) << 1, Long.highestOneBit(allowed));
+        for (int i = 0 ; i < SEGMENTS ; i++) segments[i] = new Segment(segmentCapacity);
+    }
+
+    private static long hash(long x, long y, long z) {
+        long h = x * 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 29) ^ y) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 32) ^ z) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+
+    /**
+     * Copies into result the coordinates remembered for (x, y, z).
+     * @return false if (x, y, z) is unknown
+     */
+    boolean get(double x, double y, double z, double[] result) {
+        long kx = Double.doubleToLongBits(x), ky = Double.doubleToLongBits(y), kz = Double.doubleToLongBits(z);
+        long h = hash(kx, ky, kz);
+        return segments[(int)(h >>> 58)].get(kx, ky, kz, (int)h, result);
+    }
+
+    /**
+     * Remembers that (x, y, z) is transformed to (tx, ty, tz), unless this
+     * memo is full. If (x, y, z) is already known, its first result is kept.
+     * @return false if the memo is full
+     */
+    boolean put(double x, double y, double z, double tx, double ty, double tz) {
+        long kx = Double.doubleToLongBits(x), ky = Double.doubleToLongBits(y), kz = Double.doubleToLongBits(z);
+        long h = hash(kx, ky, kz);
+        return segments[(int)(h >>> 58)].put(kx, ky, kz, (int)h, tx, ty, tz);
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    long getCapacityBytes() {
+        return (long)SEGMENTS * segments[0].entries.length * 8;
+    }
+
+    private static final class Segment {
+
+        private final long[] entries;
+        private final int mask;
+        private final int maxSize;
+        private int size;
+
+        Segment(int capacity) {
+            entries = new long[STRIDE * capacity];
+            mask = capacity - 1;
+            maxSize = capacity * 3 / 4;
+        }
+
+        synchronized boolean get(long kx, long ky, long kz, int h, double[] result) {
+            for (int i = STRIDE * (h & mask) ; entries[i] != 0 ; i = STRIDE * ((i / STRIDE + 1) & mask)) {
+                if (entries[i + 1] == kx && entries[i + 2] == ky && entries[i + 3] == kz) {
+                    result[0] = Double.longBitsToDouble(entries[i + 4]);
+                    result[1] = Double.longBitsToDouble(entries[i + 5]);
+                    result[2] = Double.longBitsToDouble(entries[i + 6]);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized boolean put(long kx, long ky, long kz, int h, double tx, double ty, double tz) {
+            int i = STRIDE * (h & mask);
+            for ( ; entries[i] != 0 ; i = STRIDE * ((i / STRIDE + 1) & mask)) {
+                if (entries[i + 1] == kx && entries[i + 2] == ky && entries[i + 3] == kz) return true;
+            }
+            if (size >= maxSize) return false;
+            entries[i] = 1;
+            entries[i + 1] = kx;
+            entries[i + 2] = ky;
+            entries[i + 3] = kz;
+            entries[i + 4] = Double.doubleToRawLongBits(tx);
+            entries[i + 5] = Double.doubleToRawLongBits(ty);
+            entries[i + 6] = Double.doubleToRawLongBits(tz);
+            size++;
+            return true;
+        }
+    }
+}
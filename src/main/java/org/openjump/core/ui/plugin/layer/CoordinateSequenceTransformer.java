@@ -0,0 +1,195 @@
+package org.openjump.core.ui.plugin.layer;
+
+import org.cts.IllegalCoordinateException;
+import org.cts.op.CoordinateOperation;
+import org.cts.op.CoordinateOperationException;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryCollection;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Transforms geometries with a CTS {@link CoordinateOperation}, walking their
+ * {@link CoordinateSequence}s block by block.
+ * Ordinates are packed into primitive buffers owned by the current thread,
+ * transformed, and written back directly into the sequence, so that no
+ * Coordinate nor array is allocated for each point.
+ * Coordinates which cannot be transformed are set to NaN and counted, both
+ * by the transformer and by the current thread (see
+ * {@link #getThreadFailureCount()}), so that the failures of each geometry
+ * can be told apart. Coordinates out of the {@link ValidityDomain} of the
+ * source CRS fail without calling the operation.
+ */
+public class CoordinateSequenceTransformer {
+
+    static final int BLOCK_SIZE = 1024;
+
+    // failures of all the transformers, counted by thread
+    private static final ThreadLocal<long[]> THREAD_FAILURES = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final CoordinateOperation op;
+    private final ValidityDomain domain;
+    private final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(Buffer::new);
+    private final AtomicLong failures = new AtomicLong();
+
+    public CoordinateSequenceTransformer(CoordinateOperation op) {
+        this(op, ValidityDomain.ANY);
+    }
+
+    CoordinateSequenceTransformer(CoordinateOperation op, ValidityDomain domain) {
+        this.op = op;
+        this.domain = domain;
+    }
+
+    public CoordinateOperation getOperation() {
+        return op;
+    }
+
+    ValidityDomain getDomain() {
+        return domain;
+    }
+
+    /**
+     * @return a transformer equivalent to this one, with its own failure
+     * count, e.g. to count the failures of each layer transformed concurrently
+     */
+    CoordinateSequenceTransformer copy() {
+        return new CoordinateSequenceTransformer(op, domain);
+    }
+
+    /**
+     * Transforms geometry in place.
+     * @return false if geometry has been left in its original CRS, so that
+     * its SRID must not be changed
+     */
+    public boolean transform(Geometry geometry) {
+        forEachSequence(geometry, this::transform);
+        geometry.geometryChanged();
+        return true;
+    }
+
+    /**
+     * Applies action to each CoordinateSequence of geometry, in a
+     * deterministic order.
+     */
+    static void forEachSequence(Geometry geometry, Consumer<CoordinateSequence> action) {
+        if (geometry instanceof GeometryCollection) {
+            for (int i = 0 ; i < geometry.getNumGeometries() ; i++) {
+                forEachSequence(geometry.getGeometryN(i), action);
+            }
+        } else if (geometry instanceof Polygon) {
+            Polygon polygon = (Polygon)geometry;
+            action.accept(polygon.getExteriorRing().getCoordinateSequence());
+            for (int i = 0 ; i < polygon.getNumInteriorRing() ; i++) {
+                action.accept(polygon.getInteriorRingN(i).getCoordinateSequence());
+            }
+        } else if (geometry instanceof LineString) {
+            action.accept(((LineString)geometry).getCoordinateSequence());
+        } else if (geometry instanceof Point) {
+            action.accept(((Point)geometry).getCoordinateSequence());
+        }
+    }
+
+    /**
+     * Transforms the coordinates of seq in place.
+     */
+    public void transform(CoordinateSequence seq) {
+        Buffer buffer = buffers.get();
+        boolean hasZ = seq.hasZ();
+        int size = seq.size();
+        for (int start = 0 ; start < size ; start += BLOCK_SIZE) {
+            int n = Math.min(BLOCK_SIZE, size - start);
+            for (int i = 0 ; i < n ; i++) {
+                buffer.x[i] = seq.getX(start + i);
+                buffer.y[i] = seq.getY(start + i);
+                buffer.z[i] = hasZ ? seq.getZ(start + i) : Double.NaN;
+            }
+            transform(buffer, n);
+            for (int i = 0 ; i < n ; i++) {
+                seq.setOrdinate(start + i, CoordinateSequence.X, buffer.x[i]);
+                seq.setOrdinate(start + i, CoordinateSequence.Y, buffer.y[i]);
+                if (hasZ) seq.setOrdinate(start + i, CoordinateSequence.Z, buffer.z[i]);
+            }
+        }
+    }
+
+    /**
+     * Transforms the n first points of buffer in place.
+     */
+    void transform(Buffer buffer, int n) {
+        for (int i = 0 ; i < n ; i++) {
+            transformPoint(buffer, i);
+        }
+    }
+
+    /**
+     * Transforms the point i of buffer in place with the exact operation.
+     */
+    final void transformPoint(Buffer buffer, int i) {
+        if (!domain.contains(buffer.x[i], buffer.y[i])) {
+            fail(buffer, i);
+            return;
+        }
+        double[] point = buffer.point;
+        point[0] = buffer.x[i];
+        point[1] = buffer.y[i];
+        point[2] = buffer.z[i];
+        try {
+            double[] xyz = op.transform(point);
+            buffer.x[i] = xyz[0];
+            buffer.y[i] = xyz[1];
+            if (xyz.length > 2) buffer.z[i] = xyz[2];
+        } catch (IllegalCoordinateException | CoordinateOperationException e) {
+            fail(buffer, i);
+        }
+    }
+
+    /**
+     * Sets the point i of buffer to NaN and counts it as a failure.
+     */
+    final void fail(Buffer buffer, int i) {
+        buffer.x[i] = Double.NaN;
+        buffer.y[i] = Double.NaN;
+        buffer.z[i] = Double.NaN;
+        failures.incrementAndGet();
+        THREAD_FAILURES.get()[0]++;
+    }
+
+    /**
+     * Counts count failures of the current thread which did not go through
+     * this class.
+     */
+    static void countThreadFailures(long count) {
+        THREAD_FAILURES.get()[0] += count;
+    }
+
+    /**
+     * @return the number of coordinates the current thread could not
+     * transform so far, with any transformer
+     */
+    static long getThreadFailureCount() {
+        return THREAD_FAILURES.get()[0];
+    }
+
+    /**
+     * @return the number of coordinates which could not be transformed so far
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * Scratch columns reused by a thread for every block it transforms.
+     */
+    static final class Buffer {
+        final double[] x = new double[BLOCK_SIZE];
+        final double[] y = new double[BLOCK_SIZE];
+        final double[] z = new double[BLOCK_SIZE];
+        final double[] point = new double[3];
+    }
+}
@@ -4,69 +4,95 @@ import com.vividsolutions.jump.coordsys.CoordinateSystem;
 import com.vividsolutions.jump.coordsys.Geographic;
 import com.vividsolutions.jump.coordsys.Planar;
 import com.vividsolutions.jump.coordsys.Projection;
+import com.vividsolutions.jump.workbench.Logger;
 import org.cts.IllegalCoordinateException;
 import org.cts.crs.CoordinateReferenceSystem;
 import org.cts.cs.Axis;
+import org.cts.op.CoordinateOperation;
 import org.cts.op.CoordinateOperationException;
 import org.cts.op.CoordinateSwitch;
 import org.cts.op.UnitConversion;
 import org.cts.units.Unit;
 import org.locationtech.jts.util.Assert;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * A wrapper to wrap a {@link org.cts.crs.CoordinateReferenceSystem} into a
  * {@link com.vividsolutions.jump.coordsys.CoordinateSystem}.
+ * The projection of a CRS is built once and shared by all the wrappers of
+ * this CRS.
  */
 public class CoordinateSystemWrapper extends CoordinateSystem {
+
+    // projections by CRS, see getKey
+    private static final Map<String,CTSProjection> PROJECTIONS = new ConcurrentHashMap<>();
+
     CoordinateReferenceSystem crs;
+    private final CTSProjection projection;
+
     CoordinateSystemWrapper(final CoordinateReferenceSystem crs) {
-        super(crs.getName(),
-                (crs.getAuthorityKey().equalsIgnoreCase("EPSG") ?
-                        Integer.parseInt(crs.getAuthorityKey()) : 0),
-                new Projection() {
-
-            @Override
-            public Planar asPlanar(Geographic q0, Planar p) {
-                double[] dd = new double[]{q0.lat, q0.lon, q0.hgt};
-                try {
-                    // La latitude et la longitude sont échangées si besoin
-                    if (crs.getCoordinateSystem().getAxis(0) == Axis.LONGITUDE) {
-                        dd = CoordinateSwitch.SWITCH_LAT_LON.transform(dd);
-                    }
-                    // Les coordonnées géographiques sont passées en radian
-                    dd = UnitConversion.createUnitConverter(Unit.DEGREE, Unit.RADIAN).transform(dd);
-                    // puis projetées
-                    dd = crs.getProjection().transform(dd);
-                    return new Planar(dd[0], dd[1]);
-                } catch(IllegalCoordinateException | CoordinateOperationException e) {
+        this(crs, getProjection(crs));
+    }
 
-                }
-                return null;
-            }
+    private CoordinateSystemWrapper(final CoordinateReferenceSystem crs, final CTSProjection projection) {
+        super(crs.getName(), ReprojectionEngine.getSRID(crs), projection);
+        this.crs = crs;
+        this.projection = projection;
+    }
 
-            @Override
-            public Geographic asGeographic(Planar p, Geographic q) {
-                double[] dd = new double[]{p.x, p.y, p.z};
-                try {
-                    // Les coordonnées sont passées en géographiques
-                    dd = crs.getProjection().inverse().transform(dd);
-                    // La latitude et la longitude sont échangées au besoin
-                    if (crs.getCoordinateSystem().getAxis(0) == Axis.LONGITUDE) {
-                        dd = CoordinateSwitch.SWITCH_LAT_LON.transform(dd);
-                    }
-                    // Les unités sont converties en degrés
-                    dd = UnitConversion.createUnitConverter(Unit.RADIAN, Unit.DEGREE).transform(dd);
-                    return new Geographic(dd[0], dd[1]);
-                } catch(IllegalCoordinateException e) {
-
-                } catch(CoordinateOperationException e) {
+    /**
+     * Projects count geographic coordinates (lat, lon in degrees) of latLon
+     * in place. Points which cannot be projected are set to NaN.
+     * @return the number of points which could not be projected
+     */
+    public int asPlanar(double[] latLon, int count) {
+        int failures = 0;
+        double[] dd = new double[3];
+        for (int i = 0 ; i < count ; i++) {
+            dd[0] = latLon[2*i];
+            dd[1] = latLon[2*i+1];
+            dd[2] = 0;
+            double[] xy = projection.asPlanar(dd);
+            if (xy == null) failures++;
+            latLon[2*i] = xy == null ? Double.NaN : xy[0];
+            latLon[2*i+1] = xy == null ? Double.NaN : xy[1];
+        }
+        return failures;
+    }
 
-                }
-                return null;
-            }
-        });
-        this.crs = crs;
+    /**
+     * Converts count projected coordinates (x, y) of xy to geographic
+     * coordinates (lat, lon in degrees) in place. Points which cannot be
+     * converted are set to NaN.
+     * @return the number of points which could not be converted
+     */
+    public int asGeographic(double[] xy, int count) {
+        int failures = 0;
+        double[] dd = new double[3];
+        for (int i = 0 ; i < count ; i++) {
+            dd[0] = xy[2*i];
+            dd[1] = xy[2*i+1];
+            dd[2] = 0;
+            double[] latLon = projection.asGeographic(dd);
+            if (latLon == null) failures++;
+            xy[2*i] = latLon == null ? Double.NaN : latLon[0];
+            xy[2*i+1] = latLon == null ? Double.NaN : latLon[1];
+        }
+        return failures;
+    }
+
+    /**
+     * @return the number of points which could not be projected or
+     * unprojected with the CRS of this coordinate system, by any of its
+     * wrappers
+     */
+    public long getFailureCount() {
+        return projection.failures.get();
     }
+
     public String toString() {
         return crs.getName();
     }
@@ -74,22 +100,30 @@ public class CoordinateSystemWrapper extends CoordinateSystem {
         return crs.getName();
     }
     public Projection getProjection() {
-        return new Projection() {
-            @Override
-            public Planar asPlanar(Geographic q0, Planar p) {
-                return null;
-            }
+        return projection;
+    }
 
-            @Override
-            public Geographic asGeographic(Planar p, Geographic q) {
-                return null;
-            }
-        };
+    /**
+     * @return the projection of crs, built on first use
+     */
+    private static CTSProjection getProjection(CoordinateReferenceSystem crs) {
+        return PROJECTIONS.computeIfAbsent(getKey(crs), k -> new CTSProjection(crs));
+    }
+
+    /**
+     * @return authority:code for the CRSs of a registry, the WKT for the
+     * others, whose identifiers are only valid in the current session
+     */
+    private static String getKey(CoordinateReferenceSystem crs) {
+        String authority = crs.getAuthorityName();
+        if (authority != null && (authority.equalsIgnoreCase("EPSG") || authority.equalsIgnoreCase("IGNF"))) {
+            return authority.toUpperCase() + ":" + crs.getAuthorityKey();
+        }
+        return crs.toWKT();
     }
 
     public int getEPSGCode() {
-        return crs.getAuthorityName().equals("EPSG") ?
-                Integer.parseInt(crs.getAuthorityKey()) : 0;
+        return ReprojectionEngine.getSRID(crs);
     }
 
     public int compareTo(Object o) {
@@ -99,5 +133,88 @@ public class CoordinateSystemWrapper extends CoordinateSystem {
         if (o == UNSPECIFIED) { return 1; }
         return toString().compareTo(o.toString());
     }
-}
 
+    /**
+     * Projection based on the CTS projection of a CRS. The axis order, unit
+     * converters and inverse projection are resolved once, and the
+     * coordinates which cannot be transformed are counted.
+     */
+    private static final class CTSProjection extends Projection {
+
+        private static final CoordinateOperation DEGREE_TO_RADIAN =
+                UnitConversion.createUnitConverter(Unit.DEGREE, Unit.RADIAN);
+        private static final CoordinateOperation RADIAN_TO_DEGREE =
+                UnitConversion.createUnitConverter(Unit.RADIAN, Unit.DEGREE);
+
+        private final CoordinateReferenceSystem crs;
+        private final boolean switchLatLon;
+        private final CoordinateOperation forward;
+        private volatile CoordinateOperation inverse;
+        private final AtomicLong failures = new AtomicLong();
+
+        CTSProjection(CoordinateReferenceSystem crs) {
+            this.crs = crs;
+            this.switchLatLon = crs.getCoordinateSystem().getAxis(0) == Axis.LONGITUDE;
+            this.forward = crs.getProjection();
+        }
+
+        @Override
+        public Planar asPlanar(Geographic q0, Planar p) {
+            double[] dd = asPlanar(new double[]{q0.lat, q0.lon, q0.hgt});
+            return dd == null ? null : new Planar(dd[0], dd[1]);
+        }
+
+        @Override
+        public Geographic asGeographic(Planar p, Geographic q) {
+            double[] dd = asGeographic(new double[]{p.x, p.y, p.z});
+            return dd == null ? null : new Geographic(dd[0], dd[1]);
+        }
+
+        /**
+         * Projects dd (lat, lon in degrees), which may be modified.
+         * @return projected coordinates or null if dd cannot be projected
+         */
+        double[] asPlanar(double[] dd) {
+            try {
+                if (forward == null) throw new CoordinateOperationException(crs + " has no projection");
+                // La latitude et la longitude sont échangées si besoin
+                if (switchLatLon) dd = CoordinateSwitch.SWITCH_LAT_LON.transform(dd);
+                // Les coordonnées géographiques sont passées en radian puis projetées
+                return forward.transform(DEGREE_TO_RADIAN.transform(dd));
+            } catch(IllegalCoordinateException | CoordinateOperationException e) {
+                fail(e);
+                return null;
+            }
+        }
+
+        /**
+         * Unprojects dd (x, y), which may be modified.
+         * @return geographic coordinates (lat, lon in degrees) or null if dd
+         * cannot be unprojected
+         */
+        double[] asGeographic(double[] dd) {
+            try {
+                CoordinateOperation op = inverse;
+                if (op == null) {
+                    if (forward == null) throw new CoordinateOperationException(crs + " has no projection");
+                    inverse = op = forward.inverse();
+                }
+                // Les coordonnées sont passées en géographiques
+                dd = op.transform(dd);
+                // La latitude et la longitude sont échangées au besoin
+                if (switchLatLon) dd = CoordinateSwitch.SWITCH_LAT_LON.transform(dd);
+                // Les unités sont converties en degrés
+                return RADIAN_TO_DEGREE.transform(dd);
+            } catch(IllegalCoordinateException | CoordinateOperationException e) {
+                fail(e);
+                return null;
+            }
+        }
+
+        private void fail(Exception e) {
+            if (failures.getAndIncrement() == 0) {
+                Logger.warn("Coordinates cannot be transformed with " + crs + " : " + e.getMessage());
+            }
+        }
+    }
+}
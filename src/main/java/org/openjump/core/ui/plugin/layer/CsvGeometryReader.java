@@ -0,0 +1,140 @@
+package org.openjump.core.ui.plugin.layer;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the geometries of a delimited text file line by line.
+ * The first line is a header. Geometries are read either from a WKT column
+ * (named wkt, geometry, geom or the_geom) or from x/y[/z] columns (named x,
+ * y, z or lon, lat). The separator is the most frequent of ';', ',' and tab
+ * in the header. Other fields are kept as is in the record attributes.
+ * Blank lines are skipped.
+ */
+class CsvGeometryReader implements GeometryReader {
+
+    private final BufferedReader reader;
+    private final GeometryFactory factory = new GeometryFactory();
+    private final WKTReader wktReader = new WKTReader(factory);
+
+    final char separator;
+    final String[] header;
+    final int wktIndex;
+    final int xIndex;
+    final int yIndex;
+    final int zIndex;
+    private int lineNumber = 1;
+
+    CsvGeometryReader(File file) throws IOException {
+        reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+        String line = reader.readLine();
+        if (line == null) {
+            reader.close();
+            throw new IOException(file + " is empty");
+        }
+        separator = guessSeparator(line);
+        header = split(line, separator);
+        wktIndex = indexOf(header, "wkt", "geometry", "geom", "the_geom");
+        xIndex = indexOf(header, "x", "lon", "longitude");
+        yIndex = indexOf(header, "y", "lat", "latitude");
+        zIndex = indexOf(header, "z");
+        if (wktIndex < 0 && (xIndex < 0 || yIndex < 0)) {
+            reader.close();
+            throw new IOException(file + " has neither a WKT column nor x/y columns");
+        }
+    }
+
+    public GeometryRecord read() throws IOException {
+        String line = reader.readLine();
+        lineNumber++;
+        // blank lines, e.g. at the end of the file, are skipped
+        while (line != null && line.trim().isEmpty()) {
+            line = reader.readLine();
+            lineNumber++;
+        }
+        if (line == null) return null;
+        String[] fields = split(line, separator);
+        try {
+            if (wktIndex >= 0) {
+                return new GeometryRecord(wktReader.read(fields[wktIndex]), fields);
+            } else {
+                Coordinate c = new Coordinate(
+                        Double.parseDouble(fields[xIndex]),
+                        Double.parseDouble(fields[yIndex]),
+                        zIndex >= 0 && !fields[zIndex].isEmpty() ? Double.parseDouble(fields[zIndex]) : Double.NaN);
+                return new GeometryRecord(factory.createPoint(c), fields);
+            }
+        } catch (ParseException | RuntimeException e) {
+            throw new IOException("Invalid geometry at line " + lineNumber + " : " + e.getMessage(), e);
+        }
+    }
+
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private static char guessSeparator(String header) {
+        char separator = ',';
+        int max = 0;
+        for (char c : new char[]{';', ',', '\t'}) {
+            int count = 0;
+            for (int i = 0 ; i < header.length() ; i++) {
+                if (header.charAt(i) == c) count++;
+            }
+            if (count > max) {
+                max = count;
+                separator = c;
+            }
+        }
+        return separator;
+    }
+
+    private static int indexOf(String[] header, String... names) {
+        for (String name : names) {
+            for (int i = 0 ; i < header.length ; i++) {
+                if (header[i].trim().equalsIgnoreCase(name)) return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Splits a line into fields, handling double-quoted fields.
+     */
+    static String[] split(String line, char separator) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0 ; i < line.length() ; i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        sb.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    sb.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == separator) {
+                fields.add(sb.toString());
+                sb.setLength(0);
+            } else {
+                sb.append(c);
+            }
+        }
+        fields.add(sb.toString());
+        return fields.toArray(new String[0]);
+    }
+}
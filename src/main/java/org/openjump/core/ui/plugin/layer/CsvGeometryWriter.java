@@ -0,0 +1,57 @@
+package org.openjump.core.ui.plugin.layer;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.io.WKTWriter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the records of a {@link CsvGeometryReader} with the same layout,
+ * replacing the geometry fields by the transformed geometries.
+ */
+class CsvGeometryWriter implements GeometryWriter {
+
+    private final Writer writer;
+    private final CsvGeometryReader layout;
+    // writes z when the geometry has it
+    private final WKTWriter wktWriter = new WKTWriter(3);
+
+    CsvGeometryWriter(File file, CsvGeometryReader layout) throws IOException {
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        this.layout = layout;
+        writeLine(layout.header);
+    }
+
+    public void write(GeometryRecord record) throws IOException {
+        String[] fields = (String[])record.attributes;
+        if (layout.wktIndex >= 0) {
+            fields[layout.wktIndex] = wktWriter.write(record.geometry);
+        } else {
+            Coordinate c = record.geometry.getCoordinate();
+            fields[layout.xIndex] = Double.toString(c.x);
+            fields[layout.yIndex] = Double.toString(c.y);
+            if (layout.zIndex >= 0 && !Double.isNaN(c.getZ())) fields[layout.zIndex] = Double.toString(c.getZ());
+        }
+        writeLine(fields);
+    }
+
+    private void writeLine(String[] fields) throws IOException {
+        for (int i = 0 ; i < fields.length ; i++) {
+            if (i > 0) writer.write(layout.separator);
+            String field = fields[i];
+            if (field.indexOf(layout.separator) >= 0 || field.indexOf('"') >= 0) {
+                writer.write('"');
+                writer.write(field.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(field);
+            }
+        }
+        writer.write('\n');
+    }
+
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,119 @@
+package org.openjump.core.ui.plugin.layer;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transformer remembering the coordinates it has transformed in a
+ * {@link CoordinateMemo}, so that vertices shared by several features (e.g.
+ * the boundaries of adjacent parcels) are transformed once.
+ * Coordinates transformed again are taken from the memo, so that shared
+ * vertices remain bit-identical even if their first transformation used
+ * another path of the delegate (e.g. kernel and CTS operation).
+ * In each block, coordinates missing from the memo are gathered and
+ * transformed together by the delegate.
+ * Coordinates which could not be transformed are not remembered, so that
+ * their failures are still counted each time.
+ */
+class DeduplicatingCoordinateTransformer extends CoordinateSequenceTransformer {
+
+    private final CoordinateSequenceTransformer delegate;
+    private final long expectedCoordinates;
+    private final long maxBytes;
+    private final CoordinateMemo memo;
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param expectedCoordinates number of coordinates to be transformed, to
+     *                            size the memo
+     * @param maxBytes memory budget of the memo
+     */
+    DeduplicatingCoordinateTransformer(CoordinateSequenceTransformer delegate,
+                                       long expectedCoordinates, long maxBytes) {
+        super(delegate.getOperation(), delegate.getDomain());
+        this.delegate = delegate;
+        this.expectedCoordinates = expectedCoordinates;
+        this.maxBytes = maxBytes;
+        this.memo = new CoordinateMemo(expectedCoordinates, maxBytes);
+    }
+
+    @Override
+    CoordinateSequenceTransformer copy() {
+        return new DeduplicatingCoordinateTransformer(delegate.copy(), expectedCoordinates, maxBytes);
+    }
+
+    @Override
+    void transform(Buffer buffer, int n) {
+        Scratch s = scratch.get();
+        Buffer missing = s.missing;
+        double[] result = s.result;
+        int m = 0;
+        for (int i = 0 ; i < n ; i++) {
+            if (memo.get(buffer.x[i], buffer.y[i], buffer.z[i], result)) {
+                buffer.x[i] = result[0];
+                buffer.y[i] = result[1];
+                buffer.z[i] = result[2];
+            } else {
+                s.index[m] = i;
+                missing.x[m] = buffer.x[i];
+                missing.y[m] = buffer.y[i];
+                missing.z[m] = buffer.z[i];
+                m++;
+            }
+        }
+        hits.addAndGet(n - m);
+        misses.addAndGet(m);
+        if (m == 0) return;
+        delegate.transform(missing, m);
+        for (int j = 0 ; j < m ; j++) {
+            int i = s.index[j];
+            double x = buffer.x[i], y = buffer.y[i], z = buffer.z[i];
+            double tx = missing.x[j], ty = missing.y[j], tz = missing.z[j];
+            // failures (NaN) are not remembered to be counted again, nor
+            // unchanged coordinates, which are cheap to transform again
+            boolean changed = (x != tx || y != ty) && !Double.isNaN(tx);
+            if (changed && memo.put(x, y, z, tx, ty, tz) && memo.get(x, y, z, result)) {
+                // another thread may have remembered its own result first
+                tx = result[0];
+                ty = result[1];
+                tz = result[2];
+            }
+            buffer.x[i] = tx;
+            buffer.y[i] = ty;
+            buffer.z[i] = tz;
+        }
+    }
+
+    @Override
+    public long getFailureCount() {
+        return delegate.getFailureCount();
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+
+    double getHitRate() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double)hits.get() / total;
+    }
+
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "deduplication : %.1f%% hits (%d / %d coordinates), %d distinct coordinates, memo %d MB",
+                100 * getHitRate(), getHitCount(), getHitCount() + getMissCount(),
+                memo.size(), memo.getCapacityBytes() >> 20);
+    }
+
+    private static final class Scratch {
+        final Buffer missing = new Buffer();
+        final int[] index = new int[BLOCK_SIZE];
+        final double[] result = new double[3];
+    }
+}
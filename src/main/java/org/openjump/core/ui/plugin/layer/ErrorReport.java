@@ -0,0 +1,105 @@
+package org.openjump.core.ui.plugin.layer;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Coordinates which could not be transformed in a layer, collected feature
+ * by feature according to a {@link Policy} : the number of failed features
+ * and coordinates, the indices of the failed features and the IDs of the
+ * first ones. This class is thread-safe.
+ */
+class ErrorReport {
+
+    // number of feature IDs kept to be reported
+    static final int MAX_IDS = 100;
+
+    /**
+     * What to do with a feature some coordinates of which cannot be
+     * transformed.
+     */
+    enum Policy {
+        // stop the transformation and report the feature
+        FAIL_FAST,
+        // leave the feature in its source CRS
+        SKIP_FEATURE,
+        // transform the feature, its failed coordinates being set to NaN
+        MARK_NAN
+    }
+
+    private final String name;
+    private final Policy policy;
+    private final BitSet indices = new BitSet();
+    private final List<Integer> ids = new ArrayList<>();
+    private int features;
+    private long coordinates;
+
+    /**
+     * @param name name of the layer
+     */
+    ErrorReport(String name, Policy policy) {
+        this.name = name;
+        this.policy = policy;
+    }
+
+    Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Records that count coordinates of the feature at index, identified by
+     * id, could not be transformed.
+     * @throws IllegalArgumentException if the policy is FAIL_FAST
+     */
+    synchronized void add(int index, int id, long count) {
+        if (!indices.get(index)) {
+            indices.set(index);
+            features++;
+            if (ids.size() < MAX_IDS) ids.add(id);
+        }
+        coordinates += count;
+        if (policy == Policy.FAIL_FAST) {
+            throw new IllegalArgumentException(name + " : feature " + id + " : " +
+                    count + " coordinates cannot be transformed");
+        }
+    }
+
+    synchronized boolean isEmpty() {
+        return features == 0;
+    }
+
+    synchronized int getFeatureCount() {
+        return features;
+    }
+
+    synchronized long getCoordinateCount() {
+        return coordinates;
+    }
+
+    /**
+     * @return the indices of the failed features
+     */
+    synchronized BitSet getIndices() {
+        return (BitSet)indices.clone();
+    }
+
+    /**
+     * @return the IDs of the first {@link #MAX_IDS} failed features
+     */
+    synchronized List<Integer> getIds() {
+        return new ArrayList<>(ids);
+    }
+
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(features).append(" features / ").append(coordinates).append(" coordinates not transformed (")
+                .append(policy).append(")");
+        if (!ids.isEmpty()) {
+            sb.append(" : IDs ");
+            for (int i = 0 ; i < ids.size() ; i++) sb.append(i == 0 ? "" : ", ").append(ids.get(i));
+            if (features > ids.size()) sb.append(", ...");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,16 @@
+package org.openjump.core.ui.plugin.layer;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Sequential reader of the geometries of a file, used for streaming
+ * reprojection.
+ */
+interface GeometryReader extends Closeable {
+
+    /**
+     * @return the next record, or null at the end of the file
+     */
+    GeometryRecord read() throws IOException;
+}
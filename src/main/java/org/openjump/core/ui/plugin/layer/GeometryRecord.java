@@ -0,0 +1,18 @@
+package org.openjump.core.ui.plugin.layer;
+
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * A geometry read from a file by a {@link GeometryReader}, with the raw
+ * attributes its {@link GeometryWriter} needs to write it back.
+ */
+final class GeometryRecord {
+
+    final Geometry geometry;
+    final Object attributes;
+
+    GeometryRecord(Geometry geometry, Object attributes) {
+        this.geometry = geometry;
+        this.attributes = attributes;
+    }
+}
@@ -0,0 +1,168 @@
+package org.openjump.core.ui.plugin.layer;
+
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.task.TaskMonitor;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Geometry;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The geometries of a layer kept by an undoable transformation, to be put
+ * back into the layer features on undo or redo.
+ * A snapshot either keeps references to the geometries, or only their
+ * ordinates packed into a primitive array. A packed snapshot is restored
+ * into copies of the geometries currently held by the features, which
+ * must have the same structure as the packed ones, as it is the case
+ * between the source and the target of a coordinate transformation.
+ */
+abstract class GeometrySnapshot {
+
+    // number of features restored between two cancellation checks
+    static final int CHECK_INTERVAL = 1000;
+
+    void restore(List<Feature> features) {
+        restore(features, (TaskMonitor)null);
+    }
+
+    /**
+     * Puts the geometries of this snapshot back into features, checking
+     * monitor (if not null) for cancellation.
+     * @return false if the user cancelled, features being partially restored
+     */
+    abstract boolean restore(List<Feature> features, TaskMonitor monitor);
+
+    /**
+     * Puts the geometries of this snapshot back into the features whose
+     * index is in selection, e.g. the features which could not be
+     * transformed in place.
+     */
+    abstract void restore(List<Feature> features, BitSet selection);
+
+    static boolean isCancelled(TaskMonitor monitor, int i) {
+        return monitor != null && i % CHECK_INTERVAL == 0 && monitor.isCancelRequested();
+    }
+
+    /**
+     * Snapshot keeping references to geometries.
+     */
+    static GeometrySnapshot of(List<Geometry> geometries) {
+        return new ListSnapshot(geometries);
+    }
+
+    /**
+     * Snapshot of the geometries currently held by features.
+     */
+    static GeometrySnapshot take(List<Feature> features, boolean packed) {
+        if (packed) return new PackedSnapshot(features);
+        List<Geometry> geometries = new ArrayList<>(features.size());
+        for (Feature feature : features) {
+            geometries.add(feature.getGeometry());
+        }
+        return new ListSnapshot(geometries);
+    }
+
+    private static final class ListSnapshot extends GeometrySnapshot {
+
+        private final List<Geometry> geometries;
+
+        ListSnapshot(List<Geometry> geometries) {
+            this.geometries = geometries;
+        }
+
+        boolean restore(List<Feature> features, TaskMonitor monitor) {
+            for (int i = 0 ; i < features.size() ; i++) {
+                if (isCancelled(monitor, i)) return false;
+                features.get(i).setGeometry(geometries.get(i));
+            }
+            return true;
+        }
+
+        void restore(List<Feature> features, BitSet selection) {
+            for (int i = selection.nextSetBit(0) ; i >= 0 ; i = selection.nextSetBit(i + 1)) {
+                features.get(i).setGeometry(geometries.get(i));
+            }
+        }
+    }
+
+    private static final class PackedSnapshot extends GeometrySnapshot {
+
+        private final int[] srids;
+        private final double[] ordinates;
+        private final int dimension;
+
+        PackedSnapshot(List<Feature> features) {
+            srids = new int[features.size()];
+            final int[] count = new int[1];
+            final boolean[] hasZ = new boolean[1];
+            for (int i = 0 ; i < srids.length ; i++) {
+                Geometry geometry = features.get(i).getGeometry();
+                srids[i] = geometry.getSRID();
+                CoordinateSequenceTransformer.forEachSequence(geometry, seq -> {
+                    count[0] += seq.size();
+                    if (!hasZ[0] && seq.hasZ()) {
+                        for (int j = 0 ; j < seq.size() && !hasZ[0] ; j++) {
+                            hasZ[0] = !Double.isNaN(seq.getZ(j));
+                        }
+                    }
+                });
+            }
+            dimension = hasZ[0] ? 3 : 2;
+            ordinates = new double[count[0] * dimension];
+            final int[] index = new int[1];
+            for (Feature feature : features) {
+                CoordinateSequenceTransformer.forEachSequence(feature.getGeometry(), seq -> {
+                    for (int j = 0 ; j < seq.size() ; j++) {
+                        ordinates[index[0]++] = seq.getX(j);
+                        ordinates[index[0]++] = seq.getY(j);
+                        if (dimension == 3) ordinates[index[0]++] = seq.getZ(j);
+                    }
+                });
+            }
+        }
+
+        boolean restore(List<Feature> features, TaskMonitor monitor) {
+            final int[] index = new int[1];
+            for (int i = 0 ; i < features.size() ; i++) {
+                if (isCancelled(monitor, i)) return false;
+                restore(features.get(i), i, index);
+            }
+            return true;
+        }
+
+        void restore(List<Feature> features, BitSet selection) {
+            final int[] index = new int[1];
+            for (int i = 0 ; i < features.size() ; i++) {
+                if (selection.get(i)) {
+                    restore(features.get(i), i, index);
+                } else {
+                    // the ordinates of the other features are skipped
+                    index[0] += features.get(i).getGeometry().getNumPoints() * dimension;
+                }
+            }
+        }
+
+        /**
+         * Puts the ordinates packed from index[0] into a copy of the
+         * geometry of the feature at i, index[0] being moved past them.
+         */
+        private void restore(Feature feature, int i, final int[] index) {
+            Geometry geometry = feature.getGeometry().copy();
+            CoordinateSequenceTransformer.forEachSequence(geometry, seq -> {
+                boolean hasZ = seq.hasZ();
+                for (int j = 0 ; j < seq.size() ; j++) {
+                    seq.setOrdinate(j, CoordinateSequence.X, ordinates[index[0]++]);
+                    seq.setOrdinate(j, CoordinateSequence.Y, ordinates[index[0]++]);
+                    double z = dimension == 3 ? ordinates[index[0]++] : Double.NaN;
+                    if (hasZ) seq.setOrdinate(j, CoordinateSequence.Z, z);
+                }
+            });
+            geometry.geometryChanged();
+            geometry.getEnvelopeInternal();
+            geometry.setSRID(srids[i]);
+            feature.setGeometry(geometry);
+        }
+    }
+}
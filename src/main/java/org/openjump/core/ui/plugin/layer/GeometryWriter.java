@@ -0,0 +1,12 @@
+package org.openjump.core.ui.plugin.layer;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Sequential writer of the geometries read by a {@link GeometryReader}.
+ */
+interface GeometryWriter extends Closeable {
+
+    void write(GeometryRecord record) throws IOException;
+}
@@ -0,0 +1,254 @@
+package org.openjump.core.ui.plugin.layer;
+
+import org.cts.IllegalCoordinateException;
+import org.cts.op.CoordinateOperation;
+import org.cts.op.CoordinateOperationException;
+import org.locationtech.jts.geom.Envelope;
+
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Approximate transformer for dense data : the operation is evaluated exactly
+ * on the nodes of an adaptive grid covering an envelope, and points are
+ * transformed by bilinear interpolation in the grid cell containing them.
+ * <p>
+ * The grid starts with a single cell. The error of a cell is measured by
+ * comparing the interpolated and exact transforms of 9 sample points (edge
+ * midpoints, center and quarter centers), and the cell with the largest
+ * error is split in four until all cells are under maxError. Cells which
+ * cannot reach maxError within MAX_DEPTH levels or MAX_CELLS cells, or where
+ * the operation fails, are transformed exactly. Points outside the envelope
+ * are also transformed exactly. As the error is only measured on sample
+ * points, maxError is an estimate of the error, not a guaranteed bound.
+ * <p>
+ * Only x and y are interpolated : blocks with z values are transformed
+ * exactly, so that all the heights of a 3D layer are transformed alike.
+ */
+class GridCoordinateTransformer extends CoordinateSequenceTransformer {
+
+    static final int MAX_DEPTH = 12;
+    static final int MAX_CELLS = Integer.getInteger("cts.grid.max-cells", 65536);
+    // relative positions of the points used to measure the error of a cell :
+    // edge midpoints, center and quarter centers
+    private static final double[][] SAMPLES = {
+            {0.5, 0}, {0.5, 1}, {0, 0.5}, {1, 0.5}, {0.5, 0.5},
+            {0.25, 0.25}, {0.75, 0.25}, {0.25, 0.75}, {0.75, 0.75}
+    };
+
+    private final Envelope envelope;
+    private final double maxError;
+    private final double metersPerUnit;
+    private final Cell root;
+    private double estimatedError;
+    private int cellCount;
+    private int exactCellCount;
+    private final AtomicLong exactPoints = new AtomicLong();
+
+    /**
+     * @param op the exact operation
+     * @param domain the validity domain of the source coordinates
+     * @param envelope the source envelope to cover with the grid
+     * @param maxError the maximum error allowed, in meters
+     * @param metersPerUnit the length of a target unit in meters, used to
+     *                      convert errors measured in target coordinates
+     * @throws IllegalArgumentException if maxError is not a positive number
+     */
+    GridCoordinateTransformer(CoordinateOperation op, ValidityDomain domain, Envelope envelope,
+                              double maxError, double metersPerUnit) {
+        super(op, domain);
+        if (!(maxError > 0 && maxError < Double.POSITIVE_INFINITY)) {
+            throw new IllegalArgumentException("Invalid maximum error : " + maxError);
+        }
+        this.envelope = new Envelope(envelope);
+        this.maxError = maxError;
+        this.metersPerUnit = metersPerUnit;
+        this.root = envelope.getWidth() > 0 && envelope.getHeight() > 0 ?
+                build(envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY()) : null;
+    }
+
+    /**
+     * Creates a transformer sharing the grid of other, with its own counts.
+     */
+    private GridCoordinateTransformer(GridCoordinateTransformer other) {
+        super(other.getOperation(), other.getDomain());
+        this.envelope = other.envelope;
+        this.maxError = other.maxError;
+        this.metersPerUnit = other.metersPerUnit;
+        this.root = other.root;
+        this.estimatedError = other.estimatedError;
+        this.cellCount = other.cellCount;
+        this.exactCellCount = other.exactCellCount;
+    }
+
+    @Override
+    CoordinateSequenceTransformer copy() {
+        return new GridCoordinateTransformer(this);
+    }
+
+    private Cell build(double x0, double y0, double x1, double y1) {
+        Cell root = new Cell(x0, y0, x1, y1, 0,
+                exact(x0, y0), exact(x1, y0), exact(x0, y1), exact(x1, y1));
+        PriorityQueue<Cell> queue = new PriorityQueue<>((a, b) -> Double.compare(b.error, a.error));
+        queue.add(root);
+        cellCount = 1;
+        while (!queue.isEmpty()) {
+            Cell cell = queue.poll();
+            if (cell.error <= maxError) {
+                // the worst remaining cell is precise enough, and so are all others
+                estimatedError = Math.max(estimatedError, cell.error);
+                break;
+            }
+            if (cell.depth >= MAX_DEPTH || cellCount + 3 > MAX_CELLS) {
+                cell.exact = true;
+                exactCellCount++;
+                continue;
+            }
+            for (Cell child : cell.split()) queue.add(child);
+            cellCount += 3;
+        }
+        return root;
+    }
+
+    private double[] exact(double x, double y) {
+        try {
+            double[] xy = getOperation().transform(new double[]{x, y, 0});
+            return new double[]{xy[0], xy[1]};
+        } catch (IllegalCoordinateException | CoordinateOperationException e) {
+            return null;
+        }
+    }
+
+    @Override
+    void transform(Buffer buffer, int n) {
+        for (int i = 0 ; i < n ; i++) {
+            if (!Double.isNaN(buffer.z[i])) {
+                exactPoints.addAndGet(n);
+                super.transform(buffer, n);
+                return;
+            }
+        }
+        for (int i = 0 ; i < n ; i++) {
+            Cell cell = find(buffer.x[i], buffer.y[i]);
+            if (cell == null || cell.exact) {
+                exactPoints.incrementAndGet();
+                transformPoint(buffer, i);
+            } else {
+                double u = (buffer.x[i] - cell.x0) / (cell.x1 - cell.x0);
+                double v = (buffer.y[i] - cell.y0) / (cell.y1 - cell.y0);
+                buffer.x[i] = cell.interpolate(0, u, v);
+                buffer.y[i] = cell.interpolate(1, u, v);
+            }
+        }
+    }
+
+    private Cell find(double x, double y) {
+        if (root == null || !envelope.contains(x, y)) return null;
+        Cell cell = root;
+        while (cell.children != null) {
+            cell = cell.children[(x >= cell.xm() ? 1 : 0) + (y >= cell.ym() ? 2 : 0)];
+        }
+        return cell;
+    }
+
+    /**
+     * @return the maximum error requested, in meters
+     */
+    double getMaxError() {
+        return maxError;
+    }
+
+    /**
+     * @return the largest error measured on the sample points of the
+     * interpolated cells, in meters : an estimate of the error, which may be
+     * exceeded between sample points
+     */
+    double getEstimatedError() {
+        return estimatedError;
+    }
+
+    int getCellCount() {
+        return cellCount;
+    }
+
+    /**
+     * @return the number of points which have been transformed exactly
+     * because they were outside the grid, in a cell which could not be
+     * interpolated within maxError or in a block with z values
+     */
+    long getExactPointCount() {
+        return exactPoints.get();
+    }
+
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "grid of %d cells (%d exact), max error %.3g m, estimated %.3g m, %d points transformed exactly",
+                cellCount, exactCellCount, maxError, estimatedError, exactPoints.get());
+    }
+
+    private final class Cell {
+
+        final double x0, y0, x1, y1;
+        final int depth;
+        // exact transforms of the corners (south-west, south-east, north-west,
+        // north-east), null where the operation failed
+        final double[] sw, se, nw, ne;
+        final double error;
+        Cell[] children;
+        boolean exact;
+
+        Cell(double x0, double y0, double x1, double y1, int depth,
+             double[] sw, double[] se, double[] nw, double[] ne) {
+            this.x0 = x0;
+            this.y0 = y0;
+            this.x1 = x1;
+            this.y1 = y1;
+            this.depth = depth;
+            this.sw = sw;
+            this.se = se;
+            this.nw = nw;
+            this.ne = ne;
+            this.error = measureError();
+        }
+
+        double xm() {
+            return (x0 + x1) / 2;
+        }
+
+        double ym() {
+            return (y0 + y1) / 2;
+        }
+
+        double interpolate(int axis, double u, double v) {
+            return (1 - u) * (1 - v) * sw[axis] + u * (1 - v) * se[axis] +
+                    (1 - u) * v * nw[axis] + u * v * ne[axis];
+        }
+
+        private double measureError() {
+            if (sw == null || se == null || nw == null || ne == null) return Double.POSITIVE_INFINITY;
+            double max = 0;
+            for (double[] uv : SAMPLES) {
+                double[] xy = exact(x0 + uv[0] * (x1 - x0), y0 + uv[1] * (y1 - y0));
+                if (xy == null) return Double.POSITIVE_INFINITY;
+                double dx = interpolate(0, uv[0], uv[1]) - xy[0];
+                double dy = interpolate(1, uv[0], uv[1]) - xy[1];
+                max = Math.max(max, Math.sqrt(dx * dx + dy * dy) * metersPerUnit);
+            }
+            return max;
+        }
+
+        Cell[] split() {
+            double xm = xm(), ym = ym();
+            double[] s = exact(xm, y0), n = exact(xm, y1);
+            double[] w = exact(x0, ym), e = exact(x1, ym), c = exact(xm, ym);
+            children = new Cell[]{
+                    new Cell(x0, y0, xm, ym, depth + 1, sw, s, w, c),
+                    new Cell(xm, y0, x1, ym, depth + 1, s, se, c, e),
+                    new Cell(x0, ym, xm, y1, depth + 1, w, c, nw, n),
+                    new Cell(xm, ym, x1, y1, depth + 1, c, e, n, ne)
+            };
+            return children;
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package org.openjump.core.ui.plugin.layer;
+
+import com.vividsolutions.jump.workbench.Logger;
+import org.cts.IllegalCoordinateException;
+import org.cts.crs.CoordinateReferenceSystem;
+import org.cts.cs.Axis;
+import org.cts.op.CoordinateOperation;
+import org.cts.op.CoordinateOperationException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transformer running a specialized kernel on the x and y columns of each
+ * block instead of the chain of CTS operations, point by point.
+ * <p>
+ * A kernel is made of three fused loops : source coordinates to geographic
+ * radians (unit conversion, axis switch and inverse projection), datum shift
+ * (geocentric conversion and 7-parameter Helmert transformations to and from
+ * WGS 84, combined in a single affine transformation), and geographic
+ * radians to target coordinates. Kernels are built from the WKT definitions
+ * of the CRSs for geographic, Lambert conformal conic, transverse Mercator
+ * and Mercator CRSs. A kernel is only used if it gives the same results as
+ * the CTS operation, within 1 mm, on probe points spread over the area of
+ * use of the projections, as given by their parameters ; otherwise (e.g.
+ * grid based datum shifts), the CTS operation is used.
+ * <p>
+ * Blocks with z values, and points for which the kernel gives no result,
+ * are transformed with the CTS operation. Points out of the
+ * {@link ValidityDomain} of the source CRS fail before reaching the kernel,
+ * as they would with the CTS operation, instead of being given finite but
+ * meaningless coordinates.
+ * <p>
+ * The kernel selected for each pair of registry CRSs is recorded in the
+ * {@link OperationSnapshot}, so that next sessions do not validate it again.
+ */
+class KernelCoordinateTransformer extends CoordinateSequenceTransformer {
+
+    private static final boolean ENABLED = !"false".equals(System.getProperty("cts.kernels"));
+    // tolerances of the validation, in meters and in degrees
+    private static final double LINEAR_TOLERANCE = 1e-3;
+    private static final double ANGULAR_TOLERANCE = 1e-8;
+    // number of probe points per side of the probe area
+    private static final int PROBE_SIDE = 7;
+
+    private final Kernel kernel;
+    private final ThreadLocal<double[][]> scratch = ThreadLocal.withInitial(() ->
+            new double[][]{new double[BLOCK_SIZE], new double[BLOCK_SIZE]});
+
+    private KernelCoordinateTransformer(CoordinateOperation op, ValidityDomain domain, Kernel kernel) {
+        super(op, domain);
+        this.kernel = kernel;
+    }
+
+    /**
+     * @return a kernel based transformer equivalent to op, or a plain
+     * CoordinateSequenceTransformer if no kernel matches op, checking the
+     * validity domain of srcCRS in both cases
+     */
+    static CoordinateSequenceTransformer create(CoordinateReferenceSystem srcCRS,
+                                                CoordinateReferenceSystem tgtCRS,
+                                                CoordinateOperation op) {
+        ValidityDomain domain = ValidityDomain.of(srcCRS);
+        if (!ENABLED) return new CoordinateSequenceTransformer(op, domain);
+        // the kernels of CRSs without registry identity are not recorded, as
+        // their keys may designate other CRSs in other sessions
+        OperationSnapshot snapshot =
+                OperationSnapshot.isPersistent(srcCRS) && OperationSnapshot.isPersistent(tgtCRS) ?
+                OperationSnapshot.getInstance() : null;
+        String key = OperationSnapshot.getKey(srcCRS, tgtCRS);
+        // kernel selected by a previous session with the same CTS version
+        try {
+            OperationSnapshot.Record record = snapshot == null ? null : snapshot.get(key);
+            if (record != null) {
+                return record.hasKernel() ?
+                        new KernelCoordinateTransformer(op, domain, Kernel.of(record)) :
+                        new CoordinateSequenceTransformer(op, domain);
+            }
+        } catch (RuntimeException e) {
+            Logger.debug("Invalid snapshot record " + key + " : " + e);
+        }
+        Kernel selected = null;
+        try {
+            for (Kernel kernel : Kernel.candidates(srcCRS, tgtCRS)) {
+                if (kernel.matches(op)) {
+                    Logger.debug("Kernel selected from " + srcCRS + " to " + tgtCRS + " : " + kernel);
+                    selected = kernel;
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            Logger.debug("No kernel from " + srcCRS + " to " + tgtCRS + " : " + e);
+        }
+        if (snapshot != null) snapshot.put(key, selected == null ? OperationSnapshot.Record.NO_KERNEL : selected.toRecord());
+        return selected == null ? new CoordinateSequenceTransformer(op, domain) :
+                new KernelCoordinateTransformer(op, domain, selected);
+    }
+
+    Kernel getKernel() {
+        return kernel;
+    }
+
+    @Override
+    CoordinateSequenceTransformer copy() {
+        return new KernelCoordinateTransformer(getOperation(), getDomain(), kernel);
+    }
+
+    @Override
+    void transform(Buffer buffer, int n) {
+        for (int i = 0 ; i < n ; i++) {
+            if (!Double.isNaN(buffer.z[i])) {
+                super.transform(buffer, n);
+                return;
+            }
+        }
+        ValidityDomain domain = getDomain();
+        double[][] src = scratch.get();
+        System.arraycopy(buffer.x, 0, src[0], 0, n);
+        System.arraycopy(buffer.y, 0, src[1], 0, n);
+        // rejected points are set to NaN, so that the kernel skips them
+        // cheaply, then counted as failures
+        boolean rejected = false;
+        for (int i = 0 ; i < n ; i++) {
+            if (!domain.contains(buffer.x[i], buffer.y[i])) {
+                buffer.x[i] = Double.NaN;
+                buffer.y[i] = Double.NaN;
+                rejected = true;
+            }
+        }
+        kernel.transform(buffer.x, buffer.y, n);
+        for (int i = 0 ; i < n ; i++) {
+            if (rejected && !domain.contains(src[0][i], src[1][i])) {
+                fail(buffer, i);
+            } else if (Double.isNaN(buffer.x[i]) || Double.isNaN(buffer.y[i]) ||
+                    Double.isInfinite(buffer.x[i]) || Double.isInfinite(buffer.y[i])) {
+                buffer.x[i] = src[0][i];
+                buffer.y[i] = src[1][i];
+                transformPoint(buffer, i);
+            }
+        }
+    }
+
+    /**
+     * Geodetic parameters of a CRS read from its WKT.
+     */
+    private static final class Geodetic {
+
+        final boolean geographic;
+        final boolean latFirst;
+        final double a;
+        final double e;
+        final double primeMeridian;
+        final double angularUnit;
+        // TOWGS84 parameters, zeros if the datum has none
+        final double[] toWGS84 = new double[7];
+        final ProjectionKernel projection;
+
+        // definition from which the parameters have been read
+        final String wkt;
+
+        /**
+         * @throws IllegalArgumentException if the CRS is not supported
+         */
+        static Geodetic of(CoordinateReferenceSystem crs) {
+            Axis axis = crs.getCoordinateSystem().getAxis(0);
+            Geodetic geodetic = new Geodetic(crs.toWKT(), axis == Axis.LATITUDE);
+            if (!geodetic.geographic && (axis == Axis.LATITUDE || axis == Axis.LONGITUDE)) {
+                throw new IllegalArgumentException("Unexpected axis order");
+            }
+            return geodetic;
+        }
+
+        Geodetic(String wkt, boolean latFirst) {
+            this.wkt = wkt;
+            this.latFirst = latFirst;
+            WktNode root = WktNode.parse(wkt);
+            WktNode geogcs = root.keyword.equals("GEOGCS") ? root : root.get("GEOGCS");
+            if (geogcs == null || !(root.keyword.equals("GEOGCS") || root.keyword.equals("PROJCS"))) {
+                throw new IllegalArgumentException("Unsupported CRS type " + root.keyword);
+            }
+            WktNode datumNode = geogcs.get("DATUM");
+            WktNode spheroid = datumNode.get("SPHEROID");
+            a = spheroid.getNumber(0);
+            double invf = spheroid.getNumber(1);
+            double f = invf == 0 ? 0 : 1 / invf;
+            e = Math.sqrt(f * (2 - f));
+            WktNode towgs84 = datumNode.get("TOWGS84");
+            if (towgs84 != null) {
+                for (int i = 0 ; i < towgs84.getNumberCount() && i < 7 ; i++) toWGS84[i] = towgs84.getNumber(i);
+            }
+            WktNode angular = geogcs.get("UNIT");
+            angularUnit = angular == null ? Math.PI / 180 : angular.getNumber(0);
+            WktNode primem = geogcs.get("PRIMEM");
+            primeMeridian = primem == null ? 0 : primem.getNumber(0) * angularUnit;
+            geographic = root.keyword.equals("GEOGCS");
+            if (geographic) {
+                projection = null;
+            } else {
+                WktNode linear = root.get("UNIT");
+                projection = ProjectionKernel.create(root, a, e, primeMeridian, angularUnit,
+                        linear == null ? 1 : linear.getNumber(0));
+                if (projection == null) {
+                    throw new IllegalArgumentException("Unsupported projection " + root.get("PROJECTION"));
+                }
+            }
+        }
+
+        boolean isWGS84Identity() {
+            for (double p : toWGS84) if (p != 0) return false;
+            return true;
+        }
+
+        /**
+         * Converts n source coordinates to longitudes and latitudes in
+         * radians from Greenwich.
+         */
+        void toGeographic(double[] x, double[] y, int n) {
+            if (projection != null) {
+                projection.inverse(x, y, n);
+            } else {
+                for (int i = 0 ; i < n ; i++) {
+                    double lon = latFirst ? y[i] : x[i];
+                    double lat = latFirst ? x[i] : y[i];
+                    x[i] = lon * angularUnit + primeMeridian;
+                    y[i] = lat * angularUnit;
+                }
+            }
+        }
+
+        /**
+         * Converts n longitudes and latitudes in radians from Greenwich to
+         * coordinates of this CRS.
+         */
+        void fromGeographic(double[] x, double[] y, int n) {
+            if (projection != null) {
+                projection.forward(x, y, n);
+            } else {
+                for (int i = 0 ; i < n ; i++) {
+                    double lon = (x[i] - primeMeridian) / angularUnit;
+                    double lat = y[i] / angularUnit;
+                    x[i] = latFirst ? lat : lon;
+                    y[i] = latFirst ? lon : lat;
+                }
+            }
+        }
+    }
+
+    /**
+     * Source to target kernel.
+     */
+    static final class Kernel {
+
+        // datum shift modes, as recorded in the operation snapshot
+        static final int NO_DATUM_SHIFT = 0;
+        static final int POSITION_VECTOR = 1;
+        static final int COORDINATE_FRAME = 2;
+        private static final String[] DATUM_SHIFTS =
+                {"no datum shift", "position vector Helmert", "coordinate frame Helmert"};
+
+        private final Geodetic src;
+        private final Geodetic tgt;
+        // affine transformation between geocentric coordinates, or null
+        // if no datum shift is applied
+        private final double[] helmert;
+        private final int datumShift;
+
+        private Kernel(Geodetic src, Geodetic tgt, int datumShift) {
+            this.src = src;
+            this.tgt = tgt;
+            this.datumShift = datumShift;
+            this.helmert = datumShift == NO_DATUM_SHIFT ? null :
+                    helmert(src.toWGS84, tgt.toWGS84, datumShift == POSITION_VECTOR ? 1 : -1);
+        }
+
+        /**
+         * Recreates a kernel selected in a previous session.
+         */
+        static Kernel of(OperationSnapshot.Record record) {
+            return new Kernel(new Geodetic(record.srcWkt, record.srcLatFirst),
+                    new Geodetic(record.tgtWkt, record.tgtLatFirst), record.datumShift);
+        }
+
+        OperationSnapshot.Record toRecord() {
+            return new OperationSnapshot.Record(src.wkt, src.latFirst, tgt.wkt, tgt.latFirst, datumShift);
+        }
+
+        /**
+         * @return the kernels which may be equivalent to the operation from
+         * srcCRS to tgtCRS, to be validated against it
+         */
+        static List<Kernel> candidates(CoordinateReferenceSystem srcCRS, CoordinateReferenceSystem tgtCRS) {
+            Geodetic src = Geodetic.of(srcCRS);
+            Geodetic tgt = Geodetic.of(tgtCRS);
+            List<Kernel> kernels = new ArrayList<>();
+            boolean sameEllipsoid = src.a == tgt.a && src.e == tgt.e;
+            boolean identity = src.isWGS84Identity() && tgt.isWGS84Identity();
+            if (identity && sameEllipsoid) {
+                kernels.add(new Kernel(src, tgt, NO_DATUM_SHIFT));
+            } else {
+                kernels.add(new Kernel(src, tgt, POSITION_VECTOR));
+                if (!identity) {
+                    kernels.add(new Kernel(src, tgt, COORDINATE_FRAME));
+                } else {
+                    // datums without shift to WGS 84 (e.g. spherical Web Mercator)
+                    kernels.add(new Kernel(src, tgt, NO_DATUM_SHIFT));
+                }
+            }
+            return kernels;
+        }
+
+        /**
+         * Combines the Helmert transformation of src to WGS 84 and the
+         * inverse of the Helmert transformation of tgt to WGS 84 into a
+         * single affine transformation (3x3 matrix followed by a translation).
+         * @param sign 1 for the position vector convention, -1 for the
+         *             coordinate frame convention
+         */
+        private static double[] helmert(double[] src, double[] tgt, double sign) {
+            double[] m1 = matrix(src, sign);
+            double[] m2 = invert(matrix(tgt, sign));
+            double[] m = new double[12];
+            for (int r = 0 ; r < 3 ; r++) {
+                for (int c = 0 ; c < 3 ; c++) {
+                    for (int k = 0 ; k < 3 ; k++) m[3 * r + c] += m2[3 * r + k] * m1[3 * k + c];
+                }
+            }
+            // translation : m2 . (tsrc - ttgt)
+            for (int r = 0 ; r < 3 ; r++) {
+                for (int k = 0 ; k < 3 ; k++) m[9 + r] += m2[3 * r + k] * (src[k] - tgt[k]);
+            }
+            return m;
+        }
+
+        private static double[] matrix(double[] p, double sign) {
+            double rx = sign * p[3] * Math.PI / 648000;
+            double ry = sign * p[4] * Math.PI / 648000;
+            double rz = sign * p[5] * Math.PI / 648000;
+            double s = 1 + p[6] * 1e-6;
+            return new double[]{
+                    s,       -s * rz, s * ry,
+                    s * rz,  s,       -s * rx,
+                    -s * ry, s * rx,  s
+            };
+        }
+
+        private static double[] invert(double[] m) {
+            double det = m[0] * (m[4] * m[8] - m[5] * m[7]) -
+                    m[1] * (m[3] * m[8] - m[5] * m[6]) +
+                    m[2] * (m[3] * m[7] - m[4] * m[6]);
+            return new double[]{
+                    (m[4] * m[8] - m[5] * m[7]) / det, (m[2] * m[7] - m[1] * m[8]) / det, (m[1] * m[5] - m[2] * m[4]) / det,
+                    (m[5] * m[6] - m[3] * m[8]) / det, (m[0] * m[8] - m[2] * m[6]) / det, (m[2] * m[3] - m[0] * m[5]) / det,
+                    (m[3] * m[7] - m[4] * m[6]) / det, (m[1] * m[6] - m[0] * m[7]) / det, (m[0] * m[4] - m[1] * m[3]) / det
+            };
+        }
+
+        /**
+         * Transforms n points of columns x and y in place.
+         */
+        void transform(double[] x, double[] y, int n) {
+            src.toGeographic(x, y, n);
+            if (helmert != null) shift(x, y, n);
+            tgt.fromGeographic(x, y, n);
+        }
+
+        /**
+         * Geographic (src ellipsoid) to geocentric, affine transformation,
+         * and geocentric to geographic (tgt ellipsoid), heights being 0.
+         */
+        private void shift(double[] x, double[] y, int n) {
+            double[] m = helmert;
+            double a1 = src.a, e1 = src.e * src.e;
+            double a2 = tgt.a, e2 = tgt.e * tgt.e;
+            for (int i = 0 ; i < n ; i++) {
+                double sinLat = Math.sin(y[i]);
+                double cosLat = Math.cos(y[i]);
+                double nu = a1 / Math.sqrt(1 - e1 * sinLat * sinLat);
+                double gx = nu * cosLat * Math.cos(x[i]);
+                double gy = nu * cosLat * Math.sin(x[i]);
+                double gz = nu * (1 - e1) * sinLat;
+                double tx = m[0] * gx + m[1] * gy + m[2] * gz + m[9];
+                double ty = m[3] * gx + m[4] * gy + m[5] * gz + m[10];
+                double tz = m[6] * gx + m[7] * gy + m[8] * gz + m[11];
+                double p = Math.sqrt(tx * tx + ty * ty);
+                double lat = Math.atan2(tz, p * (1 - e2));
+                for (int k = 0 ; k < 10 ; k++) {
+                    double sin = Math.sin(lat);
+                    double nu2 = a2 / Math.sqrt(1 - e2 * sin * sin);
+                    double h = Math.abs(lat) < Math.PI / 4 ? p / Math.cos(lat) - nu2 : tz / sin - nu2 * (1 - e2);
+                    double next = Math.atan2(tz, p * (1 - e2 * nu2 / (nu2 + h)));
+                    if (Math.abs(next - lat) < 1e-14) {
+                        lat = next;
+                        break;
+                    }
+                    lat = next;
+                }
+                x[i] = Math.atan2(ty, tx);
+                y[i] = lat;
+            }
+        }
+
+        /**
+         * @return the area over which this kernel is compared with the CTS
+         * operation, as {west, east, south, north} in radians : the common
+         * part of the areas of the source and target projections, or the
+         * area of the source projection if they do not overlap
+         */
+        double[] getProbeArea() {
+            double[] area = src.projection == null ? null : src.projection.getProbeArea();
+            double[] other = tgt.projection == null ? null : tgt.projection.getProbeArea();
+            if (area == null) {
+                // geographic to geographic : the datum shift is compared over
+                // the world, away from the antimeridian
+                return other == null ?
+                        ProjectionKernel.area(Math.toRadians(-170), Math.toRadians(170), -Math.PI / 2, Math.PI / 2) :
+                        other;
+            }
+            if (other == null) return area;
+            double[] common = {Math.max(area[0], other[0]), Math.min(area[1], other[1]),
+                    Math.max(area[2], other[2]), Math.min(area[3], other[3])};
+            return common[0] < common[1] && common[2] < common[3] ? common : area;
+        }
+
+        /**
+         * @return true if this kernel gives the same results as op on a grid
+         * of probe points covering its {@link #getProbeArea() probe area},
+         * edges included
+         */
+        boolean matches(CoordinateOperation op) {
+            double[] area = getProbeArea();
+            int count = 0;
+            for (int i = 0 ; i < PROBE_SIDE ; i++) {
+                for (int j = 0 ; j < PROBE_SIDE ; j++) {
+                    double[] x = {area[0] + (area[1] - area[0]) * i / (PROBE_SIDE - 1)};
+                    double[] y = {area[2] + (area[3] - area[2]) * j / (PROBE_SIDE - 1)};
+                    src.fromGeographic(x, y, 1);
+                    double[] expected;
+                    try {
+                        expected = op.transform(new double[]{x[0], y[0], 0});
+                    } catch (IllegalCoordinateException | CoordinateOperationException e) {
+                        continue;
+                    }
+                    transform(x, y, 1);
+                    double tolerance = tgt.geographic ? ANGULAR_TOLERANCE * Math.PI / 180 / tgt.angularUnit :
+                            LINEAR_TOLERANCE / tgt.projection.unit;
+                    double dx = x[0] - expected[0];
+                    double dy = y[0] - expected[1];
+                    if (tgt.geographic) {
+                        // longitudes near the antimeridian may be given in
+                        // another turn
+                        double turn = 2 * Math.PI / tgt.angularUnit;
+                        if (tgt.latFirst) dy = Math.IEEEremainder(dy, turn);
+                        else dx = Math.IEEEremainder(dx, turn);
+                    }
+                    if (!(Math.abs(dx) <= tolerance && Math.abs(dy) <= tolerance)) {
+                        return false;
+                    }
+                    count++;
+                }
+            }
+            return count >= PROBE_SIDE * PROBE_SIDE / 2;
+        }
+
+        public String toString() {
+            return (src.projection == null ? "geographic" : src.projection.getClass().getSimpleName()) + " -> " +
+                    (tgt.projection == null ? "geographic" : tgt.projection.getClass().getSimpleName()) +
+                    ", " + DATUM_SHIFTS[datumShift];
+        }
+    }
+}
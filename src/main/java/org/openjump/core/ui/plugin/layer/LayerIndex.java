@@ -0,0 +1,78 @@
+package org.openjump.core.ui.plugin.layer;
+
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.feature.IndexedFeatureCollection;
+import com.vividsolutions.jump.workbench.Logger;
+import com.vividsolutions.jump.workbench.model.Layer;
+import org.locationtech.jts.index.SpatialIndex;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.lang.reflect.Field;
+
+/**
+ * Rebuilds the spatial index of layers whose feature collection is an
+ * {@link IndexedFeatureCollection}, after their geometries have been
+ * replaced : the index is bulk-loaded with the envelopes cached in the
+ * geometries during the transformation, and built immediately, so that the
+ * first query does not have to.
+ * <p>
+ * The new index replaces the old one inside the IndexedFeatureCollection of
+ * the layer, which keeps its feature collection, its wrapper and the
+ * listeners of the wrapper. IndexedFeatureCollection cannot update its index
+ * (an STRtree is read-only once built) nor replace it, so its index field is
+ * set by reflection. If this field cannot be found, e.g. in another version
+ * of OpenJUMP, the layer gets a new IndexedFeatureCollection, as a query
+ * must not use the envelopes of the old geometries. This also replaces the
+ * wrapper of the layer, and the caller must then notify the listeners.
+ */
+final class LayerIndex {
+
+    // index field of IndexedFeatureCollection, or null if it is not accessible
+    private static final Field SPATIAL_INDEX = findIndexField();
+
+    private LayerIndex() {
+    }
+
+    private static Field findIndexField() {
+        try {
+            for (Field field : IndexedFeatureCollection.class.getDeclaredFields()) {
+                if (SpatialIndex.class.isAssignableFrom(field.getType())) {
+                    field.setAccessible(true);
+                    return field;
+                }
+            }
+            Logger.debug("No index field in IndexedFeatureCollection");
+        } catch (RuntimeException e) {
+            Logger.debug("Cannot access the index of IndexedFeatureCollection : " + e);
+        }
+        return null;
+    }
+
+    /**
+     * @return true if layer had a spatial index, which has been rebuilt
+     */
+    static boolean rebuild(Layer layer) {
+        FeatureCollection fc = layer.getFeatureCollectionWrapper().getWrappee();
+        if (!(fc instanceof IndexedFeatureCollection)) return false;
+        IndexedFeatureCollection indexed = (IndexedFeatureCollection)fc;
+        if (SPATIAL_INDEX != null) {
+            STRtree tree = new STRtree();
+            for (Feature feature : indexed.getFeatures()) {
+                tree.insert(feature.getGeometry().getEnvelopeInternal(), feature);
+            }
+            tree.build();
+            try {
+                SPATIAL_INDEX.set(indexed, tree);
+                return true;
+            } catch (IllegalAccessException | RuntimeException e) {
+                Logger.debug("Cannot set the index of " + layer.getName() + " : " + e);
+            }
+        }
+        STRtree tree = new STRtree();
+        IndexedFeatureCollection replacement = new IndexedFeatureCollection(indexed.getWrappee(), tree);
+        tree.build();
+        layer.setFeatureCollection(replacement);
+        return true;
+    }
+}
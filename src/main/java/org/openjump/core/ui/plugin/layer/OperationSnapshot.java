@@ -0,0 +1,282 @@
+package org.openjump.core.ui.plugin.layer;
+
+import com.vividsolutions.jump.workbench.Logger;
+import org.cts.CRSFactory;
+import org.cts.crs.CoordinateReferenceSystem;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot of the kernels selected for the (source, target) CRS pairs
+ * used in previous sessions : the WKT definitions and axis order of both
+ * CRSs, and the datum shift of the kernel, or the fact that no kernel
+ * matches the CTS operation.
+ * <p>
+ * The snapshot file is memory-mapped when first needed and only its keys
+ * are decoded ; a record is decoded when its pair is requested, which saves
+ * the WKT export and the validation of the kernel candidates. Its keys also
+ * tell {@link CTSPrewarmer} which CRSs and operations to resolve at startup.
+ * The file is invalidated when the CTS library or the snapshot format
+ * changes, and rewritten at shutdown if new pairs have been used.
+ * Only the pairs of CRSs of the EPSG and IGNF registries are recorded : the
+ * identifiers of other CRSs (e.g. parsed from a WKT or a .prj file) are only
+ * valid in the session which created them.
+ * <p>
+ * The snapshot holds no CTS object : each session still parses the
+ * registries, resolves the CRSs and derives the CTS operations, which are
+ * used for the points the kernels cannot transform. For the recorded pairs,
+ * this is done in the background by CTSPrewarmer at startup, so the first
+ * transformation of a session is only faster than a fully cold one once
+ * the warm-up has reached its pair.
+ * <p>
+ * The file is cts-operations.snapshot in the .openjump directory of the user,
+ * unless the cts.snapshot system property gives another path (an empty value
+ * disables the snapshot).
+ */
+final class OperationSnapshot {
+
+    private static final int MAGIC = 0x43545346;
+    // version 2 : pairs of registry CRSs only
+    // version 3 : kernels validated over the area of use of the projections
+    private static final int VERSION = 3;
+
+    private static OperationSnapshot instance;
+
+    private final File file;
+    private final String stamp;
+    // mapped file and position of the record of each key, in file order
+    private final ByteBuffer mapped;
+    private final Map<String,Integer> positions = new LinkedHashMap<>();
+    // records selected in this session
+    private final Map<String,Record> added = new LinkedHashMap<>();
+
+    private OperationSnapshot(File file) {
+        this.file = file;
+        this.stamp = getCTSStamp();
+        ByteBuffer buffer = null;
+        if (file != null && file.isFile()) {
+            try {
+                buffer = map(file);
+            } catch (IOException | RuntimeException e) {
+                Logger.warn("Cannot read " + file + " : " + e.getMessage());
+                positions.clear();
+            }
+        }
+        this.mapped = buffer;
+    }
+
+    /**
+     * Returns the snapshot of this session, mapping its file the first time.
+     */
+    static synchronized OperationSnapshot getInstance() {
+        if (instance == null) {
+            instance = new OperationSnapshot(getFile());
+            if (instance.file != null) {
+                Thread hook = new Thread(instance::writeIfChanged, "CTS snapshot");
+                Runtime.getRuntime().addShutdownHook(hook);
+            }
+        }
+        return instance;
+    }
+
+    private static File getFile() {
+        String path = System.getProperty("cts.snapshot");
+        if (path != null) return path.trim().isEmpty() ? null : new File(path);
+        return new File(new File(System.getProperty("user.home"), ".openjump"), "cts-operations.snapshot");
+    }
+
+    /**
+     * Identifies the CTS library in use : its version and the size and date
+     * of its jar, so that registries or operations of another build are not
+     * trusted.
+     */
+    private static String getCTSStamp() {
+        String stamp = String.valueOf(CRSFactory.class.getPackage().getImplementationVersion());
+        try {
+            File jar = new File(CRSFactory.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            stamp += ":" + jar.length() + ":" + jar.lastModified();
+        } catch (Exception e) {
+            Logger.debug("Cannot locate the CTS library : " + e.getMessage());
+        }
+        return stamp;
+    }
+
+    /**
+     * @return the key of the pair of CRSs, e.g. "EPSG:4326 -> EPSG:2154",
+     * which only identifies the pair in the current session unless both
+     * CRSs are {@link #isPersistent(CoordinateReferenceSystem) persistent}
+     */
+    static String getKey(CoordinateReferenceSystem srcCRS, CoordinateReferenceSystem tgtCRS) {
+        return srcCRS.getAuthorityName() + ":" + srcCRS.getAuthorityKey() + " -> " +
+                tgtCRS.getAuthorityName() + ":" + tgtCRS.getAuthorityKey();
+    }
+
+    /**
+     * @return true if crs comes from a registry, its identifier designating
+     * the same definition from one session to the next
+     */
+    static boolean isPersistent(CoordinateReferenceSystem crs) {
+        String authority = crs.getAuthorityName();
+        return authority != null && crs.getAuthorityKey() != null &&
+                (authority.equalsIgnoreCase("EPSG") || authority.equalsIgnoreCase("IGNF"));
+    }
+
+    /**
+     * Maps file and indexes its records, if it has been written for the
+     * current CTS library.
+     */
+    private ByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || !stamp.equals(readString(buffer))) {
+                Logger.info("CTS snapshot " + file + " is obsolete");
+                return null;
+            }
+            int count = buffer.getInt();
+            for (int i = 0 ; i < count ; i++) {
+                String key = readString(buffer);
+                positions.put(key, buffer.position());
+                Record.skip(buffer);
+            }
+            Logger.debug("CTS snapshot " + file + " : " + count + " operations");
+            return buffer;
+        }
+    }
+
+    /**
+     * @return the record of key, or null if key is not in the snapshot
+     */
+    synchronized Record get(String key) {
+        Record record = added.get(key);
+        if (record != null) return record;
+        Integer position = positions.get(key);
+        if (position == null) return null;
+        ByteBuffer buffer = mapped.duplicate();
+        buffer.position(position);
+        return Record.read(buffer);
+    }
+
+    synchronized void put(String key, Record record) {
+        if (!positions.containsKey(key)) added.put(key, record);
+    }
+
+    /**
+     * @return the keys of all the pairs of the snapshot, e.g.
+     * "EPSG:4326 -> EPSG:2154"
+     */
+    synchronized List<String> getKeys() {
+        List<String> keys = new ArrayList<>(positions.keySet());
+        keys.addAll(added.keySet());
+        return keys;
+    }
+
+    /**
+     * Writes the records of the mapped file and of this session into the
+     * snapshot file, if pairs have been added.
+     */
+    synchronized void writeIfChanged() {
+        if (file == null || added.isEmpty()) return;
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            File dir = file.getParentFile();
+            if (dir != null && !dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+            List<String> keys = getKeys();
+            try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                dos.writeInt(MAGIC);
+                dos.writeInt(VERSION);
+                writeString(dos, stamp);
+                dos.writeInt(keys.size());
+                for (String key : keys) {
+                    writeString(dos, key);
+                    get(key).write(dos);
+                }
+            }
+            // the mapping of the current file may prevent its replacement on
+            // some platforms : the snapshot is then updated next session
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                if (!tmp.renameTo(file)) throw new IOException("Cannot rename " + tmp);
+            }
+        } catch (IOException e) {
+            Logger.debug("Cannot write " + file + " : " + e.getMessage());
+            tmp.delete();
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream dos, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+    }
+
+    /**
+     * Kernel selected for a pair of CRSs (see
+     * {@link KernelCoordinateTransformer.Kernel}).
+     */
+    static final class Record {
+
+        static final Record NO_KERNEL = new Record(null, false, null, false, -1);
+
+        final String srcWkt;
+        final boolean srcLatFirst;
+        final String tgtWkt;
+        final boolean tgtLatFirst;
+        // datum shift of the kernel, -1 if no kernel matches the operation
+        final int datumShift;
+
+        Record(String srcWkt, boolean srcLatFirst, String tgtWkt, boolean tgtLatFirst, int datumShift) {
+            this.srcWkt = srcWkt;
+            this.srcLatFirst = srcLatFirst;
+            this.tgtWkt = tgtWkt;
+            this.tgtLatFirst = tgtLatFirst;
+            this.datumShift = datumShift;
+        }
+
+        boolean hasKernel() {
+            return datumShift >= 0;
+        }
+
+        private static Record read(ByteBuffer buffer) {
+            int datumShift = buffer.get();
+            if (datumShift < 0) return NO_KERNEL;
+            String srcWkt = readString(buffer);
+            boolean srcLatFirst = buffer.get() != 0;
+            String tgtWkt = readString(buffer);
+            boolean tgtLatFirst = buffer.get() != 0;
+            return new Record(srcWkt, srcLatFirst, tgtWkt, tgtLatFirst, datumShift);
+        }
+
+        private static void skip(ByteBuffer buffer) {
+            if (buffer.get() < 0) return;
+            for (int i = 0 ; i < 2 ; i++) {
+                // WKT followed by the axis order
+                int length = buffer.getInt();
+                buffer.position(buffer.position() + length + 1);
+            }
+        }
+
+        private void write(DataOutputStream dos) throws IOException {
+            dos.writeByte(datumShift);
+            if (!hasKernel()) return;
+            writeString(dos, srcWkt);
+            dos.writeBoolean(srcLatFirst);
+            writeString(dos, tgtWkt);
+            dos.writeBoolean(tgtLatFirst);
+        }
+    }
+}
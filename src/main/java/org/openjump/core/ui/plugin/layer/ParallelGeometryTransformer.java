@@ -0,0 +1,211 @@
+package org.openjump.core.ui.plugin.layer;
+
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.task.TaskMonitor;
+import org.locationtech.jts.geom.Geometry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transforms the geometries of a feature list, splitting the list into
+ * chunks processed concurrently by a bounded pool of worker threads.
+ * Transformed geometries are returned in the order of the features.
+ * With a single thread, everything is done in the calling thread.
+ * Geometries are copied before being transformed unless the transformer has
+ * been created in place, in which case feature geometries are modified
+ * directly. The envelopes of the transformed geometries are computed by the
+ * workers too.
+ * The features some coordinates of which cannot be transformed may be
+ * collected into an {@link ErrorReport}, which decides what to do with them.
+ * When a chunk fails or the calling thread is interrupted, the other chunks
+ * stop at their next feature, and transform only returns once none of them
+ * is running any more, so that the caller can safely restore the features.
+ */
+class ParallelGeometryTransformer implements AutoCloseable {
+
+    static final int CHUNK_SIZE = 1000;
+
+    private final CoordinateSequenceTransformer transformer;
+    private final ExecutorService executor;
+    // false if executor is shared and must not be shut down by close
+    private final boolean ownsExecutor;
+    private final boolean inPlace;
+
+    /**
+     * Creates a ParallelGeometryTransformer without default transformer, to
+     * be used with {@link #transform(List, CoordinateSequenceTransformer, int, TaskMonitor)}.
+     */
+    ParallelGeometryTransformer(int threads, boolean inPlace) {
+        this(null, threads, inPlace);
+    }
+
+    ParallelGeometryTransformer(CoordinateSequenceTransformer transformer, int threads, boolean inPlace) {
+        this(transformer, threads > 1 ? Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "CTS worker");
+            thread.setDaemon(true);
+            return thread;
+        }) : null, true, inPlace);
+    }
+
+    /**
+     * Creates a ParallelGeometryTransformer running its chunks on a shared
+     * executor, which is left running by {@link #close()}.
+     */
+    ParallelGeometryTransformer(CoordinateSequenceTransformer transformer, ExecutorService executor, boolean inPlace) {
+        this(transformer, executor, false, inPlace);
+    }
+
+    private ParallelGeometryTransformer(CoordinateSequenceTransformer transformer, ExecutorService executor,
+                                        boolean ownsExecutor, boolean inPlace) {
+        this.transformer = transformer;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.inPlace = inPlace;
+    }
+
+    /**
+     * Returns the transformed geometries of features, or null if the user
+     * cancelled the task (in place, features may then be partially
+     * transformed).
+     */
+    ArrayList<Geometry> transform(final List<Feature> features, final int srid, final TaskMonitor monitor)
+            throws InterruptedException {
+        return transform(features, transformer, srid, monitor);
+    }
+
+    /**
+     * Same as {@link #transform(List, int, TaskMonitor)}, with another
+     * transformer than the one of this ParallelGeometryTransformer.
+     */
+    ArrayList<Geometry> transform(final List<Feature> features, final CoordinateSequenceTransformer transformer,
+                                  final int srid, final TaskMonitor monitor) throws InterruptedException {
+        return transform(features, transformer, srid, null, monitor);
+    }
+
+    /**
+     * Same as {@link #transform(List, CoordinateSequenceTransformer, int, TaskMonitor)},
+     * the features with failed coordinates being added to report (if not
+     * null). With the SKIP_FEATURE policy, copies of their source geometries
+     * are returned, unless this transformer works in place, in which case
+     * the caller must restore them. With the FAIL_FAST policy, the first
+     * failure is thrown as an IllegalArgumentException, once all the chunks
+     * have stopped.
+     */
+    ArrayList<Geometry> transform(final List<Feature> features, final CoordinateSequenceTransformer transformer,
+                                  final int srid, final ErrorReport report, final TaskMonitor monitor)
+            throws InterruptedException {
+        final int size = features.size();
+        final Geometry[] result = new Geometry[size];
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicBoolean stop = new AtomicBoolean();
+        if (executor == null || size <= CHUNK_SIZE) {
+            transform(features, transformer, result, 0, size, srid, report, done, stop, monitor, true);
+            if (Thread.interrupted()) throw new InterruptedException();
+        } else {
+            List<Future<?>> futures = new ArrayList<>();
+            Throwable failure = null;
+            try {
+                for (int start = 0 ; start < size ; start += CHUNK_SIZE) {
+                    final int from = start;
+                    final int to = Math.min(start + CHUNK_SIZE, size);
+                    futures.add(executor.submit(() -> {
+                        try {
+                            transform(features, transformer, result, from, to, srid, report, done, stop,
+                                    monitor, false);
+                        } catch (RuntimeException | Error e) {
+                            stop.set(true);
+                            throw e;
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    while (true) {
+                        try {
+                            future.get(200, TimeUnit.MILLISECONDS);
+                            break;
+                        } catch (TimeoutException e) {
+                            monitor.report(done.get(), size, "");
+                        }
+                    }
+                }
+            } catch (ExecutionException e) {
+                failure = e.getCause();
+            } finally {
+                // chunks may modify the features in place : none of them
+                // may still be running once the caller gets the failure
+                stop.set(true);
+                awaitAll(futures);
+            }
+            if (failure instanceof RuntimeException) throw (RuntimeException)failure;
+            if (failure instanceof Error) throw (Error)failure;
+            if (failure != null) throw new IllegalStateException(failure);
+        }
+        if (monitor.isCancelRequested()) return null;
+        return new ArrayList<>(Arrays.asList(result));
+    }
+
+    /**
+     * Waits for all futures, whatever their outcome. An interruption is
+     * postponed until they are all done.
+     */
+    private static void awaitAll(List<Future<?>> futures) {
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException | CancellationException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void transform(List<Feature> features, CoordinateSequenceTransformer transformer,
+                           Geometry[] result, int start, int end, int srid, ErrorReport errors,
+                           AtomicInteger done, AtomicBoolean stop, TaskMonitor monitor, boolean report) {
+        for (int i = start ; i < end ; i++) {
+            if (stop.get()) return;
+            if (i % 100 == 0) {
+                if (monitor.isCancelRequested()) return;
+                if (report && Thread.currentThread().isInterrupted()) return;
+                if (report) monitor.report(done.get(), features.size(), "");
+            }
+            Geometry tgtGeom = features.get(i).getGeometry();
+            if (!inPlace) tgtGeom = tgtGeom.copy();
+            long failures = CoordinateSequenceTransformer.getThreadFailureCount();
+            boolean transformed = transformer.transform(tgtGeom);
+            failures = CoordinateSequenceTransformer.getThreadFailureCount() - failures;
+            if (failures > 0 && errors != null) {
+                errors.add(i, features.get(i).getID(), failures);
+                if (errors.getPolicy() == ErrorReport.Policy.SKIP_FEATURE && !inPlace) {
+                    tgtGeom = features.get(i).getGeometry().copy();
+                    transformed = false;
+                }
+            }
+            if (transformed) tgtGeom.setSRID(srid);
+            // compute the new envelope in the worker rather than in the
+            // thread which will next need it (layer envelope, spatial index)
+            tgtGeom.getEnvelopeInternal();
+            result[i] = tgtGeom;
+            done.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (executor != null && ownsExecutor) {
+            // chunks which will never run must not be waited for
+            for (Runnable pending : executor.shutdownNow()) ((Future<?>)pending).cancel(false);
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package org.openjump.core.ui.plugin.layer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Ellipsoidal map projection working on columns of coordinates : longitudes
+ * and latitudes in radians (longitudes from Greenwich) on one side, eastings
+ * and northings in the linear unit of the projected CRS on the other.
+ * Points which cannot be projected are set to NaN.
+ * <p>
+ * Supports the Lambert conformal conic (1SP and 2SP), transverse Mercator
+ * (including UTM) and Mercator (1SP, 2SP and the spherical Popular
+ * Visualisation Pseudo Mercator) projections, following the formulas of
+ * IOGP guidance note 7-2.
+ */
+abstract class ProjectionKernel {
+
+    // latitudes beyond which the probe areas do not extend, in radians
+    private static final double MAX_PROBE_LATITUDE = Math.toRadians(80);
+
+    final double a;
+    final double e;
+    final double e2;
+    // central meridian, in radians from Greenwich
+    final double lon0;
+    // false easting and false northing, in meters
+    final double fe;
+    final double fn;
+    // length of the projected unit in meters
+    final double unit;
+
+    ProjectionKernel(double a, double e, double lon0, double fe, double fn, double unit) {
+        this.a = a;
+        this.e = e;
+        this.e2 = e * e;
+        this.lon0 = lon0;
+        this.fe = fe;
+        this.fn = fn;
+        this.unit = unit;
+    }
+
+    /**
+     * Projects n points : x and y contain longitudes and latitudes on input,
+     * eastings and northings on output.
+     */
+    abstract void forward(double[] x, double[] y, int n);
+
+    /**
+     * Unprojects n points : x and y contain eastings and northings on input,
+     * longitudes and latitudes on output.
+     */
+    abstract void inverse(double[] x, double[] y, int n);
+
+    /**
+     * @return the area where the projection is meant to be used, according
+     * to its parameters, as {west, east, south, north} in radians : the
+     * kernel is compared with the CTS operation over this area
+     */
+    abstract double[] getProbeArea();
+
+    static double[] area(double west, double east, double south, double north) {
+        return new double[]{west, east,
+                Math.max(south, -MAX_PROBE_LATITUDE), Math.min(north, MAX_PROBE_LATITUDE)};
+    }
+
+    /**
+     * Creates the kernel of the PROJECTION and PARAMETERs of a PROJCS node.
+     * @param a semi-major axis of the ellipsoid
+     * @param e eccentricity of the ellipsoid
+     * @param primeMeridian longitude of the prime meridian, in radians
+     * @param angularUnit length of the angular unit of the parameters, in radians
+     * @param unit length of the linear unit of the parameters, in meters
+     * @return the kernel, or null if the projection is not supported
+     */
+    static ProjectionKernel create(WktNode projcs, double a, double e, double primeMeridian,
+                                   double angularUnit, double unit) {
+        WktNode projection = projcs.get("PROJECTION");
+        if (projection == null) return null;
+        String name = normalize(projection.getName());
+        Map<String,Double> parameters = new HashMap<>();
+        for (WktNode parameter : projcs.getAll("PARAMETER")) {
+            parameters.put(normalize(parameter.getName()), parameter.getNumber(0));
+        }
+        double lat0 = get(parameters, 0, "latitudeoforigin", "latitudeofnaturalorigin", "latitudeoffalseorigin")
+                * angularUnit;
+        double lon0 = get(parameters, 0, "centralmeridian", "longitudeoforigin", "longitudeofnaturalorigin",
+                "longitudeoffalseorigin") * angularUnit + primeMeridian;
+        double k0 = get(parameters, 1, "scalefactor", "scalefactoratnaturalorigin");
+        double fe = get(parameters, 0, "falseeasting", "eastingatfalseorigin") * unit;
+        double fn = get(parameters, 0, "falsenorthing", "northingatfalseorigin") * unit;
+        Double lat1 = parameters.get("standardparallel1");
+        Double lat2 = parameters.get("standardparallel2");
+        if (name.contains("lambertconformalconic") || name.contains("lambertconicconformal")) {
+            if (name.contains("1sp") || lat1 == null) {
+                return new LambertConformalConic(a, e, lat0, lon0, lat0, lat0, k0, fe, fn, unit);
+            }
+            return new LambertConformalConic(a, e, lat0, lon0, lat1 * angularUnit,
+                    (lat2 == null ? lat1 : lat2) * angularUnit, 1, fe, fn, unit);
+        } else if (name.contains("transversemercator") && !name.contains("south")) {
+            return new TransverseMercator(a, e, lat0, lon0, k0, fe, fn, unit);
+        } else if (name.contains("mercator") && !name.contains("oblique") && !name.contains("transverse")) {
+            if (name.contains("pseudo") || name.contains("auxiliarysphere")) {
+                return new Mercator(a, 0, lon0, k0, fe, fn, unit);
+            }
+            if (lat1 != null) {
+                double sin1 = Math.sin(lat1 * angularUnit);
+                k0 = Math.cos(lat1 * angularUnit) / Math.sqrt(1 - e * e * sin1 * sin1);
+            }
+            return new Mercator(a, e, lon0, k0, fe, fn, unit);
+        }
+        return null;
+    }
+
+    private static String normalize(String name) {
+        return name.toLowerCase().replaceAll("[^a-z0-9]", "");
+    }
+
+    private static double get(Map<String,Double> parameters, double defaultValue, String... names) {
+        for (String name : names) {
+            Double value = parameters.get(name);
+            if (value != null) return value;
+        }
+        return defaultValue;
+    }
+
+    /**
+     * @return the isometric colatitude function t of latitude phi
+     */
+    final double tsfn(double phi) {
+        double esin = e * Math.sin(phi);
+        return Math.tan(Math.PI / 4 - phi / 2) / Math.pow((1 - esin) / (1 + esin), e / 2);
+    }
+
+    /**
+     * @return the latitude whose isometric colatitude function is ts
+     */
+    final double phi(double ts) {
+        double phi = Math.PI / 2 - 2 * Math.atan(ts);
+        for (int i = 0 ; i < 15 ; i++) {
+            double esin = e * Math.sin(phi);
+            double next = Math.PI / 2 - 2 * Math.atan(ts * Math.pow((1 - esin) / (1 + esin), e / 2));
+            if (Math.abs(next - phi) < 1e-14) return next;
+            phi = next;
+        }
+        return phi;
+    }
+
+    final double msfn(double phi) {
+        double sin = Math.sin(phi);
+        return Math.cos(phi) / Math.sqrt(1 - e2 * sin * sin);
+    }
+
+    static final class LambertConformalConic extends ProjectionKernel {
+
+        private final double nc;
+        // a.F.k0 and radius at the latitude of origin
+        private final double aF;
+        private final double r0;
+        private final double[] probeArea;
+
+        LambertConformalConic(double a, double e, double lat0, double lon0, double lat1, double lat2,
+                              double k0, double fe, double fn, double unit) {
+            super(a, e, lon0, fe, fn, unit);
+            double m1 = msfn(lat1);
+            double t1 = tsfn(lat1);
+            this.nc = lat1 == lat2 ? Math.sin(lat1) :
+                    (Math.log(m1) - Math.log(msfn(lat2))) / (Math.log(t1) - Math.log(tsfn(lat2)));
+            this.aF = a * k0 * m1 / (nc * Math.pow(t1, nc));
+            this.r0 = aF * Math.pow(tsfn(lat0), nc);
+            // the latitudes of origin and the standard parallels, which
+            // give the hemisphere, widened by 5 degrees
+            double margin = Math.toRadians(5);
+            this.probeArea = area(lon0 - 2 * margin, lon0 + 2 * margin,
+                    Math.min(lat0, Math.min(lat1, lat2)) - margin, Math.max(lat0, Math.max(lat1, lat2)) + margin);
+        }
+
+        @Override
+        double[] getProbeArea() {
+            return probeArea;
+        }
+
+        @Override
+        void forward(double[] x, double[] y, int n) {
+            for (int i = 0 ; i < n ; i++) {
+                double r = aF * Math.pow(tsfn(y[i]), nc);
+                double theta = nc * (x[i] - lon0);
+                x[i] = (fe + r * Math.sin(theta)) / unit;
+                y[i] = (fn + r0 - r * Math.cos(theta)) / unit;
+            }
+        }
+
+        @Override
+        void inverse(double[] x, double[] y, int n) {
+            double sign = Math.signum(nc);
+            for (int i = 0 ; i < n ; i++) {
+                double dx = x[i] * unit - fe;
+                double dy = r0 - (y[i] * unit - fn);
+                double r = sign * Math.sqrt(dx * dx + dy * dy);
+                double theta = Math.atan2(sign * dx, sign * dy);
+                x[i] = theta / nc + lon0;
+                y[i] = phi(Math.pow(r / aF, 1 / nc));
+            }
+        }
+    }
+
+    static final class TransverseMercator extends ProjectionKernel {
+
+        private final double k0;
+        // radius of the rectifying sphere
+        private final double b;
+        private final double m0;
+        private final double[] h = new double[4];
+        private final double[] hi = new double[4];
+        private final double[] probeArea;
+
+        TransverseMercator(double a, double e, double lat0, double lon0, double k0,
+                           double fe, double fn, double unit) {
+            super(a, e, lon0, fe, fn, unit);
+            this.k0 = k0;
+            double f = 1 - Math.sqrt(1 - e * e);
+            double n = f / (2 - f);
+            double n2 = n * n, n3 = n2 * n, n4 = n3 * n;
+            this.b = a / (1 + n) * (1 + n2 / 4 + n4 / 64);
+            h[0] = n / 2 - 2 * n2 / 3 + 5 * n3 / 16 + 41 * n4 / 180;
+            h[1] = 13 * n2 / 48 - 3 * n3 / 5 + 557 * n4 / 1440;
+            h[2] = 61 * n3 / 240 - 103 * n4 / 140;
+            h[3] = 49561 * n4 / 161280;
+            hi[0] = n / 2 - 2 * n2 / 3 + 37 * n3 / 96 - n4 / 360;
+            hi[1] = n2 / 48 + n3 / 15 - 437 * n4 / 1440;
+            hi[2] = 17 * n3 / 480 - 37 * n4 / 840;
+            hi[3] = 4397 * n4 / 161280;
+            if (lat0 == 0) {
+                m0 = 0;
+            } else if (Math.abs(lat0) == Math.PI / 2) {
+                m0 = b * lat0;
+            } else {
+                double xi0 = Math.asin(Math.sin(Math.atan(Math.sinh(q(lat0)))));
+                double xi = xi0;
+                for (int j = 0 ; j < 4 ; j++) xi += h[j] * Math.sin(2 * (j + 1) * xi0);
+                m0 = b * xi;
+            }
+            // the whole width of a UTM zone ; on the equator, the false
+            // northing tells the hemisphere (10000 km in the south)
+            double halfWidth = Math.toRadians(3);
+            double band = Math.toRadians(10);
+            if (lat0 != 0) {
+                probeArea = area(lon0 - halfWidth, lon0 + halfWidth, lat0 - band, lat0 + band);
+            } else if (fn > 0) {
+                probeArea = area(lon0 - halfWidth, lon0 + halfWidth, -MAX_PROBE_LATITUDE, 0);
+            } else {
+                probeArea = area(lon0 - halfWidth, lon0 + halfWidth, 0, MAX_PROBE_LATITUDE);
+            }
+        }
+
+        @Override
+        double[] getProbeArea() {
+            return probeArea;
+        }
+
+        private double q(double phi) {
+            return asinh(Math.tan(phi)) - e * atanh(e * Math.sin(phi));
+        }
+
+        @Override
+        void forward(double[] x, double[] y, int n) {
+            for (int i = 0 ; i < n ; i++) {
+                double beta = Math.atan(Math.sinh(q(y[i])));
+                double eta0 = atanh(Math.cos(beta) * Math.sin(x[i] - lon0));
+                double xi0 = Math.asin(Math.sin(beta) * Math.cosh(eta0));
+                double xi = xi0, eta = eta0;
+                for (int j = 0 ; j < 4 ; j++) {
+                    int k = 2 * (j + 1);
+                    xi += h[j] * Math.sin(k * xi0) * Math.cosh(k * eta0);
+                    eta += h[j] * Math.cos(k * xi0) * Math.sinh(k * eta0);
+                }
+                x[i] = (fe + k0 * b * eta) / unit;
+                y[i] = (fn + k0 * (b * xi - m0)) / unit;
+            }
+        }
+
+        @Override
+        void inverse(double[] x, double[] y, int n) {
+            for (int i = 0 ; i < n ; i++) {
+                double eta1 = (x[i] * unit - fe) / (b * k0);
+                double xi1 = ((y[i] * unit - fn) + k0 * m0) / (b * k0);
+                double xi0 = xi1, eta0 = eta1;
+                for (int j = 0 ; j < 4 ; j++) {
+                    int k = 2 * (j + 1);
+                    xi0 -= hi[j] * Math.sin(k * xi1) * Math.cosh(k * eta1);
+                    eta0 -= hi[j] * Math.cos(k * xi1) * Math.sinh(k * eta1);
+                }
+                double beta = Math.asin(Math.sin(xi0) / Math.cosh(eta0));
+                double q1 = asinh(Math.tan(beta));
+                double q = q1;
+                for (int j = 0 ; j < 15 ; j++) {
+                    double next = q1 + e * atanh(e * Math.tanh(q));
+                    if (Math.abs(next - q) < 1e-14) {
+                        q = next;
+                        break;
+                    }
+                    q = next;
+                }
+                x[i] = lon0 + Math.asin(Math.tanh(eta0) / Math.cos(beta));
+                y[i] = Math.atan(Math.sinh(q));
+            }
+        }
+
+        private static double asinh(double x) {
+            return Math.log(x + Math.sqrt(x * x + 1));
+        }
+
+        private static double atanh(double x) {
+            return 0.5 * Math.log((1 + x) / (1 - x));
+        }
+    }
+
+    static final class Mercator extends ProjectionKernel {
+
+        private final double ak0;
+
+        Mercator(double a, double e, double lon0, double k0, double fe, double fn, double unit) {
+            super(a, e, lon0, fe, fn, unit);
+            this.ak0 = a * k0;
+        }
+
+        @Override
+        double[] getProbeArea() {
+            // Mercator maps are used up to high latitudes in both hemispheres
+            return area(lon0 - Math.toRadians(10), lon0 + Math.toRadians(10),
+                    -MAX_PROBE_LATITUDE, MAX_PROBE_LATITUDE);
+        }
+
+        @Override
+        void forward(double[] x, double[] y, int n) {
+            for (int i = 0 ; i < n ; i++) {
+                double lat = y[i];
+                x[i] = (fe + ak0 * (x[i] - lon0)) / unit;
+                y[i] = Math.abs(lat) < Math.PI / 2 ? (fn - ak0 * Math.log(tsfn(lat))) / unit : Double.NaN;
+            }
+        }
+
+        @Override
+        void inverse(double[] x, double[] y, int n) {
+            for (int i = 0 ; i < n ; i++) {
+                double ts = Math.exp((fn - y[i] * unit) / ak0);
+                x[i] = (x[i] * unit - fe) / ak0 + lon0;
+                y[i] = e == 0 ? Math.PI / 2 - 2 * Math.atan(ts) : phi(ts);
+            }
+        }
+    }
+}
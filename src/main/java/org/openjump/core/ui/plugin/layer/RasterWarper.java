@@ -0,0 +1,289 @@
+package org.openjump.core.ui.plugin.layer;
+
+import com.vividsolutions.jump.task.TaskMonitor;
+import org.cts.IllegalCoordinateException;
+import org.cts.op.CoordinateOperation;
+import org.cts.op.CoordinateOperationException;
+import org.locationtech.jts.geom.Envelope;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reprojects a north-up raster into a tiled TIFF file with its world file,
+ * tile by tile, in parallel.
+ * <p>
+ * For each target tile, the source position of a sparse grid of pixels
+ * (every {@link #GRID_STEP} pixels) is computed with the exact inverse CTS
+ * operation, and the positions of the other pixels are interpolated
+ * bilinearly in between. Only the source window covering the tile is read,
+ * and each tile is written as soon as it is complete, so that memory is
+ * bounded by a source window and a tile per thread, whatever the size of
+ * the images. Pixels are resampled with the nearest neighbour, which keeps
+ * the values of classified rasters ; pixels out of the source, or whose
+ * position cannot be transformed, are left to 0.
+ */
+class RasterWarper {
+
+    static final int DEFAULT_TILE_SIZE = 256;
+    static final int GRID_STEP = 16;
+    // number of points per side of the source envelope to compute the target one
+    private static final int BOUNDARY_POINTS = 64;
+
+    /**
+     * Reads a window of the source raster. Windows are read by the warping
+     * threads, several at a time : implementations must be thread-safe.
+     */
+    interface RasterSource {
+        /**
+         * @return the pixels of window, with their origin at the origin of
+         * the returned raster
+         */
+        Raster read(Rectangle window) throws IOException;
+    }
+
+    private final CoordinateOperation forward;
+    private final CoordinateOperation inverse;
+    private final int tileSize;
+    private final int threads;
+
+    /**
+     * @param forward operation from the source to the target CRS
+     * @param inverse operation from the target to the source CRS
+     */
+    RasterWarper(CoordinateOperation forward, CoordinateOperation inverse, int tileSize, int threads) {
+        this.forward = forward;
+        this.inverse = inverse;
+        this.tileSize = tileSize;
+        this.threads = threads;
+    }
+
+    /**
+     * Grid of the target raster : its envelope and its size in pixels.
+     */
+    static final class Grid {
+
+        final Envelope envelope;
+        final int width;
+        final int height;
+
+        Grid(Envelope envelope, int width, int height) {
+            this.envelope = envelope;
+            this.width = width;
+            this.height = height;
+        }
+
+        double getResolutionX() {
+            return envelope.getWidth() / width;
+        }
+
+        double getResolutionY() {
+            return envelope.getHeight() / height;
+        }
+    }
+
+    /**
+     * @return the target grid covering the transformed boundary of the
+     * source envelope, with square pixels and as many pixels as the source
+     */
+    Grid getTargetGrid(Grid source) {
+        Envelope env = new Envelope();
+        Envelope src = source.envelope;
+        double[] point = new double[3];
+        for (int i = 0 ; i < BOUNDARY_POINTS ; i++) {
+            double t = (double)i / BOUNDARY_POINTS;
+            double[][] boundary = {
+                    {src.getMinX() + t * src.getWidth(), src.getMinY()},
+                    {src.getMaxX(), src.getMinY() + t * src.getHeight()},
+                    {src.getMaxX() - t * src.getWidth(), src.getMaxY()},
+                    {src.getMinX(), src.getMaxY() - t * src.getHeight()}
+            };
+            for (double[] xy : boundary) {
+                point[0] = xy[0];
+                point[1] = xy[1];
+                point[2] = 0;
+                if (transform(forward, point)) env.expandToInclude(point[0], point[1]);
+            }
+        }
+        if (env.isNull() || env.getArea() == 0) {
+            throw new IllegalArgumentException("Raster envelope " + src + " cannot be transformed");
+        }
+        double resolution = Math.sqrt(env.getArea() / ((double)source.width * source.height));
+        int width = Math.max(1, (int)Math.ceil(env.getWidth() / resolution));
+        int height = Math.max(1, (int)Math.ceil(env.getHeight() / resolution));
+        return new Grid(new Envelope(env.getMinX(), env.getMinX() + width * resolution,
+                env.getMaxY() - height * resolution, env.getMaxY()), width, height);
+    }
+
+    /**
+     * Transforms point in place with op.
+     * @return false if point cannot be transformed
+     */
+    private static boolean transform(CoordinateOperation op, double[] point) {
+        try {
+            double[] xyz = op.transform(point);
+            point[0] = xyz[0];
+            point[1] = xyz[1];
+            return !Double.isNaN(point[0]) && !Double.isNaN(point[1]) &&
+                    !Double.isInfinite(point[0]) && !Double.isInfinite(point[1]);
+        } catch (IllegalCoordinateException | CoordinateOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Warps the raster read from reader, covering source, into the target
+     * grid, written to file as a tiled TIFF with a world file.
+     * @param bands number of bands of the source
+     * @param dataType DataBuffer type of the source samples
+     * @return false if the user cancelled
+     */
+    boolean warp(final RasterSource reader, final Grid source, final Grid target,
+                 int bands, int dataType, File file, final TaskMonitor monitor)
+            throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "CTS raster");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (final TiledTiffWriter writer = new TiledTiffWriter(file, target.width, target.height,
+                tileSize, bands, dataType)) {
+            final int tiles = writer.getTilesAcross() * writer.getTilesDown();
+            List<Future<?>> futures = new ArrayList<>(tiles);
+            for (int ty = 0 ; ty < writer.getTilesDown() ; ty++) {
+                for (int tx = 0 ; tx < writer.getTilesAcross() ; tx++) {
+                    final int col = tx, row = ty;
+                    futures.add(executor.submit(() -> {
+                        if (monitor.isCancelRequested()) return null;
+                        Raster tile = warpTile(reader, source, target, col * tileSize, row * tileSize);
+                        if (tile != null) writer.writeTile(col, row, tile);
+                        return null;
+                    }));
+                }
+            }
+            int done = 0;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                    monitor.report(++done, tiles, "");
+                } catch (ExecutionException e) {
+                    for (Future<?> f : futures) f.cancel(true);
+                    if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+                    if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+                    throw new IOException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        if (monitor.isCancelRequested()) {
+            file.delete();
+            return false;
+        }
+        writeWorldFile(target, getWorldFile(file));
+        return true;
+    }
+
+    /**
+     * @return the pixels of the target tile at (x0, y0), or null if it does
+     * not cover any source pixel
+     */
+    Raster warpTile(RasterSource reader, Grid source, Grid target, int x0, int y0) throws IOException {
+        int w = Math.min(tileSize, target.width - x0);
+        int h = Math.min(tileSize, target.height - y0);
+        int nx = (w + GRID_STEP - 1) / GRID_STEP + 1;
+        int ny = (h + GRID_STEP - 1) / GRID_STEP + 1;
+        // source position (in pixels) of the nodes, NaN if unknown
+        double[] sx = new double[nx * ny];
+        double[] sy = new double[nx * ny];
+        double srcResX = source.getResolutionX(), srcResY = source.getResolutionY();
+        double tgtResX = target.getResolutionX(), tgtResY = target.getResolutionY();
+        double[] point = new double[3];
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int j = 0 ; j < ny ; j++) {
+            for (int i = 0 ; i < nx ; i++) {
+                int k = j * nx + i;
+                point[0] = target.envelope.getMinX() + (x0 + Math.min(i * GRID_STEP, w) + 0.5) * tgtResX;
+                point[1] = target.envelope.getMaxY() - (y0 + Math.min(j * GRID_STEP, h) + 0.5) * tgtResY;
+                point[2] = 0;
+                if (transform(inverse, point)) {
+                    sx[k] = (point[0] - source.envelope.getMinX()) / srcResX - 0.5;
+                    sy[k] = (source.envelope.getMaxY() - point[1]) / srcResY - 0.5;
+                    minX = Math.min(minX, sx[k]);
+                    minY = Math.min(minY, sy[k]);
+                    maxX = Math.max(maxX, sx[k]);
+                    maxY = Math.max(maxY, sy[k]);
+                } else {
+                    sx[k] = sy[k] = Double.NaN;
+                }
+            }
+        }
+        // source window, with a margin for the curvature between nodes
+        int wx0 = (int)Math.max(0, Math.floor(minX) - 2);
+        int wy0 = (int)Math.max(0, Math.floor(minY) - 2);
+        int wx1 = (int)Math.min(source.width - 1, Math.ceil(maxX) + 2);
+        int wy1 = (int)Math.min(source.height - 1, Math.ceil(maxY) + 2);
+        if (wx0 > wx1 || wy0 > wy1) return null;
+        Raster window = reader.read(new Rectangle(wx0, wy0, wx1 - wx0 + 1, wy1 - wy0 + 1));
+        WritableRaster tile = window.createCompatibleWritableRaster(w, h);
+        int rx = window.getMinX(), ry = window.getMinY();
+        int rw = window.getWidth(), rh = window.getHeight();
+        double[] pixel = new double[window.getNumBands()];
+        for (int y = 0 ; y < h ; y++) {
+            int j = y / GRID_STEP;
+            double fy = (double)(y - j * GRID_STEP) / (Math.min((j + 1) * GRID_STEP, h) - j * GRID_STEP);
+            for (int x = 0 ; x < w ; x++) {
+                int i = x / GRID_STEP;
+                double fx = (double)(x - i * GRID_STEP) / (Math.min((i + 1) * GRID_STEP, w) - i * GRID_STEP);
+                int k = j * nx + i;
+                double px = interpolate(sx[k], sx[k + 1], sx[k + nx], sx[k + nx + 1], fx, fy);
+                double py = interpolate(sy[k], sy[k + 1], sy[k + nx], sy[k + nx + 1], fx, fy);
+                if (Double.isNaN(px) || Double.isNaN(py)) continue;
+                int ix = (int)Math.floor(px + 0.5) - wx0;
+                int iy = (int)Math.floor(py + 0.5) - wy0;
+                if (ix < 0 || iy < 0 || ix >= rw || iy >= rh) continue;
+                window.getPixel(ix + rx, iy + ry, pixel);
+                tile.setPixel(x, y, pixel);
+            }
+        }
+        return tile;
+    }
+
+    private static double interpolate(double v00, double v10, double v01, double v11, double fx, double fy) {
+        return (v00 * (1 - fx) + v10 * fx) * (1 - fy) + (v01 * (1 - fx) + v11 * fx) * fy;
+    }
+
+    /**
+     * @return the world file of image, e.g. image.tfw for image.tif
+     */
+    static File getWorldFile(File image) {
+        String name = image.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(image.getParentFile(), (dot < 0 ? name : name.substring(0, dot)) + ".tfw");
+    }
+
+    private static void writeWorldFile(Grid grid, File file) throws IOException {
+        try (PrintWriter pw = new PrintWriter(file, "ISO-8859-1")) {
+            double resX = grid.getResolutionX(), resY = grid.getResolutionY();
+            pw.println(String.format(Locale.ROOT, "%.12f", resX));
+            pw.println("0.0");
+            pw.println("0.0");
+            pw.println(String.format(Locale.ROOT, "%.12f", -resY));
+            // center of the upper left pixel
+            pw.println(String.format(Locale.ROOT, "%.12f", grid.envelope.getMinX() + resX / 2));
+            pw.println(String.format(Locale.ROOT, "%.12f", grid.envelope.getMaxY() - resY / 2));
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.openjump.core.ui.plugin.layer;
+
+import com.vividsolutions.jump.workbench.Logger;
+
+import java.io.*;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable catalog of the CRS codes and names of a registry, with its
+ * {@link CRSSearchIndex}.
+ * A catalog is parsed once per registry and shared by all its users. It may
+ * also be persisted as a binary index next to the plugin jar, so that next
+ * sessions do not have to parse the text registry again.
+ */
+final class RegistryCatalog {
+
+    private static final int MAGIC = 0x43545343;
+    private static final int VERSION = 1;
+
+    private static final Map<String,RegistryCatalog> CATALOGS = new HashMap<>();
+
+    // keys (codes and names) in registry order and the code they refer to
+    private final String[] keys;
+    private final String[] codes;
+    // same arrays sorted by key for binary search
+    private final String[] sortedKeys;
+    private final String[] sortedCodes;
+    // built on first use and shared by all the dialogs
+    private CRSSearchIndex searchIndex;
+
+    private RegistryCatalog(String[] keys, String[] codes) {
+        this.keys = keys;
+        this.codes = codes;
+        Integer[] index = new Integer[keys.length];
+        for (int i = 0 ; i < index.length ; i++) index[i] = i;
+        Arrays.sort(index, Comparator.comparing((Integer i) -> keys[i]));
+        sortedKeys = new String[keys.length];
+        sortedCodes = new String[keys.length];
+        for (int i = 0 ; i < index.length ; i++) {
+            sortedKeys[i] = keys[index[i]];
+            sortedCodes[i] = codes[index[i]];
+        }
+    }
+
+    /**
+     * Returns the catalog of registry (EPSG or IGNF), reading it only the
+     * first time it is requested.
+     */
+    static synchronized RegistryCatalog get(String registry) throws IOException {
+        RegistryCatalog catalog = CATALOGS.get(registry);
+        if (catalog == null) {
+            catalog = load(registry);
+            CATALOGS.put(registry, catalog);
+        }
+        return catalog;
+    }
+
+    /**
+     * @return codes and names of the registry in registry order. The array is
+     * shared and must not be modified.
+     */
+    String[] getKeys() {
+        return keys;
+    }
+
+    /**
+     * @return the code associated to key (a code or a name), or null
+     */
+    String getCode(String key) {
+        if (key == null) return null;
+        int i = Arrays.binarySearch(sortedKeys, key);
+        return i < 0 ? null : sortedCodes[i];
+    }
+
+    /**
+     * @return the search index of this catalog, built the first time
+     */
+    synchronized CRSSearchIndex getSearchIndex() {
+        if (searchIndex == null) searchIndex = new CRSSearchIndex(keys, codes);
+        return searchIndex;
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    private static RegistryCatalog load(String registry) throws IOException {
+        URL url = org.cts.registry.Registry.class.getResource(registry.toLowerCase());
+        long stamp = url == null ? 0 : url.openConnection().getLastModified();
+        File file = getIndexFile(registry);
+        if (file != null && file.exists()) {
+            try {
+                RegistryCatalog catalog = readIndex(file, stamp);
+                if (catalog != null) return catalog;
+            } catch (IOException e) {
+                Logger.warn("Cannot read " + file + " : " + e.getMessage());
+            }
+        }
+        Map<String,String> map = RegistryReader.read(registry);
+        RegistryCatalog catalog = new RegistryCatalog(
+                map.keySet().toArray(new String[0]),
+                map.values().toArray(new String[0]));
+        if (file != null) {
+            try {
+                catalog.writeIndex(file, stamp);
+            } catch (IOException e) {
+                Logger.debug("Cannot write " + file + " : " + e.getMessage());
+            }
+        }
+        return catalog;
+    }
+
+    /**
+     * Binary index file located next to the plugin jar, or null if the plugin
+     * is not loaded from a jar or if persistence has been disabled with the
+     * cts.catalog.persist system property.
+     */
+    private static File getIndexFile(String registry) {
+        if (!Boolean.parseBoolean(System.getProperty("cts.catalog.persist", "true"))) return null;
+        try {
+            File jar = new File(RegistryCatalog.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            if (!jar.isFile()) return null;
+            return new File(jar.getParentFile(), "cts-" + registry.toLowerCase() + ".idx");
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static RegistryCatalog readIndex(File file, long stamp) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION || dis.readLong() != stamp) return null;
+            int size = dis.readInt();
+            String[] keys = new String[size];
+            String[] codes = new String[size];
+            for (int i = 0 ; i < size ; i++) {
+                codes[i] = dis.readUTF();
+                keys[i] = dis.readBoolean() ? codes[i] : dis.readUTF();
+            }
+            return new RegistryCatalog(keys, codes);
+        }
+    }
+
+    private void writeIndex(File file, long stamp) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeLong(stamp);
+            dos.writeInt(keys.length);
+            for (int i = 0 ; i < keys.length ; i++) {
+                dos.writeUTF(codes[i]);
+                boolean isCode = keys[i].equals(codes[i]);
+                dos.writeBoolean(isCode);
+                if (!isCode) dos.writeUTF(keys[i]);
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) throw new IOException("Cannot rename " + tmp);
+        }
+    }
+}
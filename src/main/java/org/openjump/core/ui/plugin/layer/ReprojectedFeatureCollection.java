@@ -0,0 +1,455 @@
+package org.openjump.core.ui.plugin.layer;
+
+import com.vividsolutions.jump.coordsys.CoordinateSystem;
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.feature.FeatureCollectionWrapper;
+import com.vividsolutions.jump.feature.FeatureSchema;
+import com.vividsolutions.jump.task.DummyTaskMonitor;
+import com.vividsolutions.jump.workbench.Logger;
+import com.vividsolutions.jump.workbench.model.*;
+import org.cts.IllegalCoordinateException;
+import org.cts.op.CoordinateOperation;
+import org.cts.op.CoordinateOperationException;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.impl.CoordinateArraySequence;
+import org.openjump.core.ccordsys.srid.SRIDStyle;
+
+import java.util.*;
+
+/**
+ * Read-only view of the features of a layer in another CRS, reprojected
+ * when they are displayed : the source layer keeps its native coordinates,
+ * and the renderer queries this collection with envelopes in the target CRS.
+ * <p>
+ * A query envelope is transformed back to the source CRS to query the
+ * source layer (and its spatial index), then the features found are
+ * replaced by copies with transformed geometries. These copies are kept in
+ * a cache of the layer, bounded by a memory budget and evicting the least
+ * recently displayed features, so that panning over a large layer only
+ * transforms the features which were not displayed recently. Copies are
+ * dropped when the source features are modified or deleted, or when their
+ * geometry has been replaced (e.g. by undo).
+ * <p>
+ * Requests for all the features (getFeatures, iterator) use the cached
+ * copies but do not add the others to the cache, so that they do not evict
+ * the displayed features ; the iterator transforms them chunk by chunk.
+ * Transformations run on the pool of the {@link TransformationService},
+ * shared by all the views.
+ * <p>
+ * The view always reads the current feature collection of the source,
+ * which may be replaced (e.g. when its spatial index is rebuilt). Once the
+ * coordinate system of the source changes (e.g. the source itself has been
+ * reprojected), the operation of the view no longer applies : the view
+ * shows nothing and removes itself.
+ */
+class ReprojectedFeatureCollection extends FeatureCollectionWrapper implements LayerListener {
+
+    // number of points per side of an envelope to transform it
+    private static final int BOUNDARY_POINTS = 16;
+    // approximate size of a cached feature besides its coordinates
+    private static final int ENTRY_OVERHEAD = 256;
+    // approximate size of a point of a CoordinateArraySequence : the
+    // reference in the array and the Coordinate object with its 3 doubles
+    private static final int ARRAY_POINT_BYTES = 48;
+
+    private final Layer source;
+    // coordinate system of the source when the view was created
+    private final CoordinateSystem sourceCS;
+    private final FeatureSchema schema;
+    private final CoordinateOperation forward;
+    private final CoordinateOperation inverse;
+    private final int targetSRID;
+    private final ParallelGeometryTransformer transformer;
+    private final long maxBytes;
+    // transformed copies of the source features, by feature ID, in access order
+    private final LinkedHashMap<Integer,Entry> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private Envelope envelope;
+    private LayerManager layerManager;
+    private Layer view;
+    // true once the view has been removed because its source has changed
+    private boolean closed;
+
+    private static final class Entry {
+        final Geometry source;
+        final Feature copy;
+        final long bytes;
+
+        Entry(Geometry source, Feature copy) {
+            this.source = source;
+            this.copy = copy;
+            this.bytes = ENTRY_OVERHEAD + estimateBytes(copy.getGeometry());
+        }
+    }
+
+    /**
+     * @return the approximate size of the coordinates of geometry, in bytes
+     */
+    static long estimateBytes(Geometry geometry) {
+        long[] bytes = new long[1];
+        CoordinateSequenceTransformer.forEachSequence(geometry, seq -> bytes[0] +=
+                seq instanceof CoordinateArraySequence ?
+                        (long)ARRAY_POINT_BYTES * seq.size() :
+                        8L * seq.getDimension() * seq.size());
+        return bytes[0];
+    }
+
+    /**
+     * @param engine engine transforming from the CRS of source to cs
+     * @param inverse operation from cs to the CRS of source
+     * @param maxBytes memory budget of the transformed features
+     */
+    private ReprojectedFeatureCollection(Layer source, ReprojectionEngine engine, CoordinateOperation inverse,
+                                         CoordinateSystem cs, long maxBytes) {
+        super(source.getFeatureCollectionWrapper());
+        this.source = source;
+        this.sourceCS = source.getFeatureCollectionWrapper().getFeatureSchema().getCoordinateSystem();
+        this.schema = (FeatureSchema)source.getFeatureCollectionWrapper().getFeatureSchema().clone();
+        this.schema.setCoordinateSystem(cs);
+        this.forward = engine.getOperation();
+        this.inverse = inverse;
+        this.targetSRID = engine.getTargetSRID();
+        this.transformer = new ParallelGeometryTransformer(engine.getTransformer().copy(),
+                TransformationService.getInstance().getExecutor(), false);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Creates a non-editable layer displaying source in the target CRS of
+     * engine, next to source.
+     * @param cs coordinate system of the target CRS of engine
+     * @param maxBytes memory budget of the transformed features
+     */
+    static Layer createView(LayerManager layerManager, Layer source, String name, ReprojectionEngine engine,
+                            CoordinateSystem cs, long maxBytes) throws CoordinateOperationException {
+        CoordinateOperation inverse = CRSCache.getInstance().getOperation(engine.getTargetCRS(), engine.getSourceCRS());
+        if (inverse == null) {
+            throw new CoordinateOperationException("No coordinate operation found from " +
+                    engine.getTargetCRS() + " to " + engine.getSourceCRS());
+        }
+        ReprojectedFeatureCollection fc = new ReprojectedFeatureCollection(source, engine, inverse, cs, maxBytes);
+        Layer view = new Layer(name, source.getBasicStyle().getFillColor(), fc, layerManager);
+        view.setStyles(source.cloneStyles());
+        view.removeStyle(view.getStyle(SRIDStyle.class));
+        if (engine.getTargetSRID() > 0) {
+            SRIDStyle sridStyle = new SRIDStyle();
+            sridStyle.setSRID(engine.getTargetSRID());
+            view.addStyle(sridStyle);
+        }
+        view.setEditable(false);
+        fc.view = view;
+        fc.layerManager = layerManager;
+        layerManager.addLayerListener(fc);
+        layerManager.addLayer(layerManager.getCategory(source).getName(), view);
+        return view;
+    }
+
+    /**
+     * @return true if the coordinate system of the source is no longer the
+     * one the operations of this view start from
+     */
+    private boolean isStale() {
+        return source.getFeatureCollectionWrapper().getFeatureSchema().getCoordinateSystem() != sourceCS;
+    }
+
+    @Override
+    public FeatureSchema getFeatureSchema() {
+        return schema;
+    }
+
+    // the wrappee given to the constructor may have been replaced by the
+    // source layer
+
+    @Override
+    public FeatureCollection getWrappee() {
+        return source.getFeatureCollectionWrapper();
+    }
+
+    @Override
+    public FeatureCollection getUltimateWrappee() {
+        return source.getFeatureCollectionWrapper().getUltimateWrappee();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Envelope getEnvelope() {
+        if (isStale()) return new Envelope();
+        synchronized (cache) {
+            if (envelope != null) return envelope;
+        }
+        Envelope env = transform(forward, source.getFeatureCollectionWrapper().getEnvelope());
+        if (env == null) {
+            // the boundary of the layer cannot be transformed : use the
+            // transformed features themselves, once until the next change
+            env = new Envelope();
+            for (Iterator<Feature> it = iterator() ; it.hasNext() ; ) {
+                env.expandToInclude(it.next().getGeometry().getEnvelopeInternal());
+            }
+        }
+        synchronized (cache) {
+            envelope = env;
+        }
+        return env;
+    }
+
+    /**
+     * @return the envelope of the densified boundary of env transformed with
+     * op, or null if some point of the boundary cannot be transformed
+     */
+    static Envelope transform(CoordinateOperation op, Envelope env) {
+        if (env.isNull()) return new Envelope();
+        Envelope result = new Envelope();
+        double[] point = new double[3];
+        for (int i = 0 ; i < BOUNDARY_POINTS ; i++) {
+            double t = (double)i / BOUNDARY_POINTS;
+            double[][] boundary = {
+                    {env.getMinX() + t * env.getWidth(), env.getMinY()},
+                    {env.getMaxX(), env.getMinY() + t * env.getHeight()},
+                    {env.getMaxX() - t * env.getWidth(), env.getMaxY()},
+                    {env.getMinX(), env.getMaxY() - t * env.getHeight()}
+            };
+            for (double[] xy : boundary) {
+                point[0] = xy[0];
+                point[1] = xy[1];
+                point[2] = 0;
+                try {
+                    double[] xyz = op.transform(point);
+                    if (Double.isNaN(xyz[0]) || Double.isNaN(xyz[1]) ||
+                            Double.isInfinite(xyz[0]) || Double.isInfinite(xyz[1])) return null;
+                    result.expandToInclude(xyz[0], xyz[1]);
+                } catch (IllegalCoordinateException | CoordinateOperationException e) {
+                    return null;
+                }
+            }
+        }
+        return result;
+    }
+
+    // the feature collection of the source is read each time, as it is
+    // replaced when its spatial index is rebuilt
+
+    @Override
+    public int size() {
+        return isStale() ? 0 : source.getFeatureCollectionWrapper().size();
+    }
+
+    @Override
+    public List<Feature> getFeatures() {
+        if (isStale()) return new ArrayList<>();
+        return getCopies(source.getFeatureCollectionWrapper().getFeatures(), null, false);
+    }
+
+    /**
+     * @return an iterator transforming the features of the source chunk by
+     * chunk, as they are iterated
+     */
+    @Override
+    public Iterator<Feature> iterator() {
+        if (isStale()) return Collections.emptyIterator();
+        final List<Feature> features = source.getFeatureCollectionWrapper().getFeatures();
+        return new Iterator<Feature>() {
+            private int next;
+            private Iterator<Feature> chunk = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                return chunk.hasNext() || next < features.size();
+            }
+
+            @Override
+            public Feature next() {
+                if (!chunk.hasNext()) {
+                    if (next >= features.size()) throw new NoSuchElementException();
+                    int end = Math.min(next + ParallelGeometryTransformer.CHUNK_SIZE, features.size());
+                    chunk = getCopies(features.subList(next, end), null, false).iterator();
+                    next = end;
+                }
+                return chunk.next();
+            }
+        };
+    }
+
+    @Override
+    public List<Feature> query(Envelope env) {
+        if (isStale()) return new ArrayList<>();
+        Envelope srcEnvelope = transform(inverse, env);
+        // if the view goes beyond the domain of the source CRS, all the
+        // features are candidates
+        FeatureCollectionWrapper fc = source.getFeatureCollectionWrapper();
+        List<Feature> candidates = srcEnvelope == null ? fc.getFeatures() : fc.query(srcEnvelope);
+        return getCopies(candidates, env, true);
+    }
+
+    /**
+     * @return the transformed copies of features, taken from the cache or
+     * transformed together, keeping only those intersecting env if it is
+     * not null
+     * @param keep true to cache the copies which have been transformed
+     */
+    private List<Feature> getCopies(List<Feature> features, Envelope env, boolean keep) {
+        Feature[] copies = new Feature[features.size()];
+        List<Feature> missing = new ArrayList<>();
+        List<Integer> missingIndices = new ArrayList<>();
+        synchronized (cache) {
+            for (int i = 0 ; i < copies.length ; i++) {
+                Feature feature = features.get(i);
+                Entry entry = cache.get(feature.getID());
+                if (entry != null && entry.source == feature.getGeometry()) {
+                    copies[i] = entry.copy;
+                } else {
+                    missing.add(feature);
+                    missingIndices.add(i);
+                }
+            }
+            hits += copies.length - missing.size();
+            misses += missing.size();
+        }
+        if (!missing.isEmpty()) {
+            List<Geometry> geometries;
+            try {
+                geometries = transformer.transform(missing, targetSRID, new DummyTaskMonitor());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Collections.emptyList();
+            }
+            synchronized (cache) {
+                for (int i = 0 ; i < missing.size() ; i++) {
+                    Feature feature = missing.get(i);
+                    Feature copy = feature.clone(false);
+                    copy.setGeometry(geometries.get(i));
+                    if (keep) put(feature, copy);
+                    copies[missingIndices.get(i)] = copy;
+                }
+            }
+        }
+        List<Feature> result = new ArrayList<>(copies.length);
+        for (Feature copy : copies) {
+            if (env == null || env.intersects(copy.getGeometry().getEnvelopeInternal())) result.add(copy);
+        }
+        return result;
+    }
+
+    /**
+     * Caches copy as the transformed feature, evicting the least recently
+     * used copies beyond the memory budget.
+     */
+    private void put(Feature feature, Feature copy) {
+        Entry entry = new Entry(feature.getGeometry(), copy);
+        Entry old = cache.put(feature.getID(), entry);
+        if (old != null) bytes -= old.bytes;
+        bytes += entry.bytes;
+        Iterator<Entry> it = cache.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().bytes;
+            it.remove();
+        }
+    }
+
+    private void invalidate(Collection<Feature> features) {
+        synchronized (cache) {
+            for (Feature feature : features) {
+                Entry old = cache.remove(feature.getID());
+                if (old != null) bytes -= old.bytes;
+            }
+            envelope = null;
+        }
+    }
+
+    @Override
+    public void add(Feature feature) {
+        throw new UnsupportedOperationException("Reprojected view of " + source.getName() + " is read-only");
+    }
+
+    @Override
+    public void remove(Feature feature) {
+        throw new UnsupportedOperationException("Reprojected view of " + source.getName() + " is read-only");
+    }
+
+    @Override
+    public void addAll(Collection<Feature> features) {
+        throw new UnsupportedOperationException("Reprojected view of " + source.getName() + " is read-only");
+    }
+
+    @Override
+    public void removeAll(Collection<Feature> features) {
+        throw new UnsupportedOperationException("Reprojected view of " + source.getName() + " is read-only");
+    }
+
+    @Override
+    public Collection<Feature> remove(Envelope env) {
+        throw new UnsupportedOperationException("Reprojected view of " + source.getName() + " is read-only");
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("Reprojected view of " + source.getName() + " is read-only");
+    }
+
+    @Override
+    public void featuresChanged(FeatureEvent e) {
+        if (e.getLayer() != source) return;
+        if (isStale()) {
+            close();
+            return;
+        }
+        if (e.getType() == FeatureEventType.ADDED) {
+            synchronized (cache) {
+                envelope = null;
+            }
+        } else {
+            invalidate(e.getFeatures());
+        }
+        view.fireAppearanceChanged();
+    }
+
+    @Override
+    public void layerChanged(LayerEvent e) {
+        if (e.getLayerable() == source && e.getType() != LayerEventType.REMOVED && isStale()) {
+            close();
+            return;
+        }
+        if (e.getType() == LayerEventType.REMOVED && (e.getLayerable() == source || e.getLayerable() == view)) {
+            // the view is useless without its source, and no longer listens
+            // once removed
+            layerManager.removeLayerListener(this);
+            if (e.getLayerable() == source) layerManager.remove(view);
+            synchronized (cache) {
+                cache.clear();
+                bytes = 0;
+            }
+            transformer.close();
+            Logger.debug(toString());
+        }
+    }
+
+    /**
+     * Removes the view, whose operation does not start from the coordinate
+     * system of the source any more. Its listener is removed when the view
+     * is.
+     */
+    private void close() {
+        if (closed) return;
+        closed = true;
+        Logger.info(view.getName() + " removed : the coordinate system of " + source.getName() + " has changed");
+        layerManager.remove(view);
+    }
+
+    @Override
+    public void categoryChanged(CategoryEvent e) {
+    }
+
+    public String toString() {
+        synchronized (cache) {
+            return "ReprojectedFeatureCollection[" + source.getName() + " : " + cache.size() + " features (" +
+                    (bytes >> 10) + " kB), hits=" + hits + " misses=" + misses + "]";
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package org.openjump.core.ui.plugin.layer;
+
+import com.vividsolutions.jump.workbench.Logger;
+import org.cts.crs.CRSException;
+import org.cts.crs.CoordinateReferenceSystem;
+import org.cts.cs.Axis;
+import org.cts.op.CoordinateOperation;
+import org.cts.op.CoordinateOperationException;
+import org.cts.registry.RegistryException;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.stream.Stream;
+
+/**
+ * Headless reprojection of geometries from a source to a target
+ * CoordinateReferenceSystem, independent from the workbench.
+ * The coordinate operation is the most precise one found by CTS, shared with
+ * CTSPlugIn through {@link CRSCache}.
+ * Common operations are run by a specialized kernel (see
+ * {@link KernelCoordinateTransformer}).
+ * An engine is thread-safe and may be used by several threads at a time.
+ */
+public class ReprojectionEngine {
+
+    // WGS 84 semi-major axis, in meters
+    private static final double EQUATORIAL_RADIUS = 6378137;
+
+    private final CoordinateReferenceSystem srcCRS;
+    private final CoordinateReferenceSystem tgtCRS;
+    private final CoordinateSequenceTransformer transformer;
+    private final int sourceSRID;
+    private final int targetSRID;
+
+    private ReprojectionEngine(CoordinateReferenceSystem srcCRS,
+                               CoordinateReferenceSystem tgtCRS,
+                               CoordinateOperation op) {
+        this(srcCRS, tgtCRS, KernelCoordinateTransformer.create(srcCRS, tgtCRS, op));
+    }
+
+    private ReprojectionEngine(CoordinateReferenceSystem srcCRS,
+                               CoordinateReferenceSystem tgtCRS,
+                               CoordinateSequenceTransformer transformer) {
+        this.srcCRS = srcCRS;
+        this.tgtCRS = tgtCRS;
+        this.transformer = transformer;
+        this.sourceSRID = getSRID(srcCRS);
+        this.targetSRID = getSRID(tgtCRS);
+    }
+
+    /**
+     * @return the EPSG code of crs, or 0 if it has none, e.g. a CRS of
+     * another registry or a CRS read from a WKT or PRJ without identifier
+     */
+    static int getSRID(CoordinateReferenceSystem crs) {
+        String authority = crs.getAuthorityName();
+        String key = crs.getAuthorityKey();
+        if (authority == null || key == null || !authority.equalsIgnoreCase("EPSG")) return 0;
+        try {
+            return Integer.parseInt(key.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return an engine transforming from srcCRS to tgtCRS, or null if CTS
+     * cannot find any coordinate operation between them
+     */
+    public static ReprojectionEngine create(CoordinateReferenceSystem srcCRS, CoordinateReferenceSystem tgtCRS)
+            throws CoordinateOperationException {
+        CoordinateOperation op = CRSCache.getInstance().getOperation(srcCRS, tgtCRS);
+        return op == null ? null : new ReprojectionEngine(srcCRS, tgtCRS, op);
+    }
+
+    /**
+     * Creates an engine from the codes of two CRSs of registry (EPSG or IGNF).
+     */
+    public static ReprojectionEngine create(String registry, String srcCode, String tgtCode)
+            throws RegistryException, CRSException, CoordinateOperationException {
+        CRSCache cache = CRSCache.getInstance();
+        CoordinateReferenceSystem srcCRS = cache.getCRS(registry, srcCode);
+        CoordinateReferenceSystem tgtCRS = cache.getCRS(registry, tgtCode);
+        ReprojectionEngine engine = create(srcCRS, tgtCRS);
+        if (engine == null) {
+            throw new CoordinateOperationException("No coordinate operation found from " + srcCRS + " to " + tgtCRS);
+        }
+        return engine;
+    }
+
+    public CoordinateReferenceSystem getSourceCRS() {
+        return srcCRS;
+    }
+
+    public CoordinateReferenceSystem getTargetCRS() {
+        return tgtCRS;
+    }
+
+    public CoordinateOperation getOperation() {
+        return transformer.getOperation();
+    }
+
+    /**
+     * @return the EPSG code of the source CRS, or 0 if it is not an EPSG CRS
+     */
+    public int getSourceSRID() {
+        return sourceSRID;
+    }
+
+    /**
+     * @return the EPSG code of the target CRS, or 0 if it is not an EPSG CRS
+     */
+    public int getTargetSRID() {
+        return targetSRID;
+    }
+
+    CoordinateSequenceTransformer getTransformer() {
+        return transformer;
+    }
+
+    /**
+     * Returns an engine for collections mixing geometries of several EPSG
+     * CRSs : each geometry is transformed from the CRS given by its SRID, the
+     * operation being resolved once per SRID. Geometries without SRID are
+     * transformed from the source CRS of this engine.
+     * @throws IllegalStateException if the target CRS is not an EPSG CRS
+     */
+    public ReprojectionEngine dispatchingBySRID() {
+        if (targetSRID == 0) throw new IllegalStateException("Target CRS " + tgtCRS + " has no EPSG code");
+        if (transformer instanceof SRIDDispatchTransformer) return this;
+        return new ReprojectionEngine(srcCRS, tgtCRS,
+                new SRIDDispatchTransformer(transformer.copy(), sourceSRID, targetSRID));
+    }
+
+    /**
+     * Creates an approximate transformer interpolating the operation of this
+     * engine on an adaptive grid covering envelope (in source coordinates),
+     * within maxError meters. The grid is built immediately.
+     */
+    GridCoordinateTransformer approximate(Envelope envelope, double maxError) {
+        return new GridCoordinateTransformer(getOperation(), transformer.getDomain(), envelope, maxError,
+                getMetersPerUnit(tgtCRS));
+    }
+
+    /**
+     * @return the length in meters of the unit of the coordinates of crs,
+     * read from its WKT as the kernels do : the linear unit of a projected
+     * CRS, or the length on the equator of the angular unit of a geographic
+     * CRS (degree, grad, radian...), which overestimates longitude errors
+     * elsewhere
+     */
+    static double getMetersPerUnit(CoordinateReferenceSystem crs) {
+        Axis axis = crs.getCoordinateSystem().getAxis(0);
+        boolean geographic = axis == Axis.LATITUDE || axis == Axis.LONGITUDE;
+        try {
+            WktNode root = WktNode.parse(crs.toWKT());
+            WktNode unit = root.get("UNIT");
+            if (root.keyword.equals("GEOGCS")) {
+                // length of the angular unit in radians
+                return EQUATORIAL_RADIUS * (unit == null ? Math.PI / 180 : unit.getNumber(0));
+            }
+            return unit == null ? 1 : unit.getNumber(0);
+        } catch (RuntimeException e) {
+            Logger.debug("No unit for " + crs + " : " + e);
+            return geographic ? EQUATORIAL_RADIUS * Math.PI / 180 : 1;
+        }
+    }
+
+    /**
+     * @return a transformed copy of geometry
+     */
+    public Geometry transform(Geometry geometry) {
+        Geometry copy = geometry.copy();
+        transformInPlace(copy);
+        return copy;
+    }
+
+    /**
+     * Transforms geometry itself.
+     */
+    public void transformInPlace(Geometry geometry) {
+        if (transformer.transform(geometry)) geometry.setSRID(targetSRID);
+    }
+
+    /**
+     * @return a stream of transformed copies of the geometries of stream,
+     * which may be a parallel stream
+     */
+    public Stream<Geometry> transform(Stream<Geometry> stream) {
+        return stream.map(this::transform);
+    }
+
+    /**
+     * Reprojects a shapefile or a delimited text file into tgt, streaming
+     * its records through threads worker threads.
+     * @return the number of records written
+     */
+    public long reproject(File src, File tgt, int threads) throws IOException {
+        try (StreamingReprojector reprojector = new StreamingReprojector(transformer, threads,
+                StreamingReprojector.DEFAULT_BATCH_SIZE)) {
+            return reprojector.reproject(src, tgt);
+        }
+    }
+
+    /**
+     * @return the number of coordinates which could not be transformed so far
+     */
+    public long getFailureCount() {
+        return transformer.getFailureCount();
+    }
+}
@@ -0,0 +1,149 @@
+package org.openjump.core.ui.plugin.layer;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Metrics of a reprojection run : time spent in each phase, throughput and
+ * failures per layer, and garbage collection activity during the run.
+ */
+class ReprojectionMetrics {
+
+    long crsLookupNanos;
+    long operationSelectionNanos;
+    private final Map<String,LayerMetrics> layers = new LinkedHashMap<>();
+
+    private final long gcCount0 = getGcCount();
+    private final long gcTime0 = getGcTime();
+    private final long usedHeap0 = getUsedHeap();
+    private long gcCount;
+    private long gcTime;
+    private long usedHeap;
+
+    LayerMetrics getLayer(String name) {
+        LayerMetrics layer = layers.get(name);
+        if (layer == null) {
+            layer = new LayerMetrics(name);
+            layers.put(name, layer);
+        }
+        return layer;
+    }
+
+    Iterable<LayerMetrics> getLayers() {
+        return layers.values();
+    }
+
+    /**
+     * Closes the run : takes a snapshot of gc activity and heap usage.
+     */
+    void end() {
+        gcCount = getGcCount() - gcCount0;
+        gcTime = getGcTime() - gcTime0;
+        usedHeap = getUsedHeap();
+    }
+
+    long getFeatures() {
+        long features = 0;
+        for (LayerMetrics layer : layers.values()) features += layer.features;
+        return features;
+    }
+
+    long getCoordinates() {
+        long coordinates = 0;
+        for (LayerMetrics layer : layers.values()) coordinates += layer.coordinates;
+        return coordinates;
+    }
+
+    long getTransformNanos() {
+        long nanos = 0;
+        for (LayerMetrics layer : layers.values()) nanos += layer.transformNanos;
+        return nanos;
+    }
+
+    long getReplaceNanos() {
+        long nanos = 0;
+        for (LayerMetrics layer : layers.values()) nanos += layer.replaceNanos;
+        return nanos;
+    }
+
+    long getFailures() {
+        long failures = 0;
+        for (LayerMetrics layer : layers.values()) failures += layer.failures;
+        return failures;
+    }
+
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long getGcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+
+    private static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "crs lookup %.1f ms, operation selection %.1f ms, transform %.1f ms, replace %.1f ms, " +
+                "%d failed coordinates, gc %d collections / %d ms, heap %d MB -> %d MB",
+                millis(crsLookupNanos), millis(operationSelectionNanos), millis(getTransformNanos()),
+                millis(getReplaceNanos()), getFailures(), gcCount, gcTime, usedHeap0 >> 20, usedHeap >> 20);
+    }
+
+    static class LayerMetrics {
+
+        final String name;
+        int features;
+        long coordinates;
+        long failures;
+        long transformNanos;
+        long replaceNanos;
+        // description of the interpolation grid, if the layer has been approximated
+        String approximation;
+        // hit rate of the memo of transformed coordinates, if any
+        String deduplication;
+        // features which could not be transformed, if any
+        String errors;
+
+        LayerMetrics(String name) {
+            this.name = name;
+        }
+
+        double getFeaturesPerSecond() {
+            return transformNanos == 0 ? 0 : features * 1e9 / transformNanos;
+        }
+
+        double getCoordinatesPerSecond() {
+            return transformNanos == 0 ? 0 : coordinates * 1e9 / transformNanos;
+        }
+
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%d features, %d coordinates, transform %.1f ms (%.0f features/s, %.0f coordinates/s), " +
+                    "replace %.1f ms, %d failed coordinates",
+                    features, coordinates, millis(transformNanos), getFeaturesPerSecond(),
+                    getCoordinatesPerSecond(), millis(replaceNanos), failures) +
+                    (approximation == null ? "" : ", " + approximation) +
+                    (deduplication == null ? "" : ", " + deduplication) +
+                    (errors == null ? "" : ", " + errors);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.openjump.core.ui.plugin.layer;
+
+import com.vividsolutions.jump.workbench.Logger;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Cumulative statistics of the reprojections done in this process,
+ * registered as the org.openjump.cts:type=ReprojectionStats MBean.
+ */
+public class ReprojectionStats implements ReprojectionStatsMBean {
+
+    private static final ReprojectionStats INSTANCE = new ReprojectionStats();
+
+    private long runs;
+    private long features;
+    private long coordinates;
+    private long failedCoordinates;
+    private long transformNanos;
+    private double lastFeaturesPerSecond;
+    private double lastCoordinatesPerSecond;
+    private String lastRun = "";
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE,
+                    new ObjectName("org.openjump.cts:type=ReprojectionStats"));
+        } catch (Exception e) {
+            Logger.warn("Cannot register ReprojectionStats MBean : " + e.getMessage());
+        }
+    }
+
+    private ReprojectionStats() {
+    }
+
+    public static ReprojectionStats getInstance() {
+        return INSTANCE;
+    }
+
+    synchronized void add(ReprojectionMetrics metrics) {
+        runs++;
+        features += metrics.getFeatures();
+        coordinates += metrics.getCoordinates();
+        failedCoordinates += metrics.getFailures();
+        long nanos = metrics.getTransformNanos();
+        transformNanos += nanos;
+        lastFeaturesPerSecond = nanos == 0 ? 0 : metrics.getFeatures() * 1e9 / nanos;
+        lastCoordinatesPerSecond = nanos == 0 ? 0 : metrics.getCoordinates() * 1e9 / nanos;
+        lastRun = metrics.toString();
+    }
+
+    public synchronized long getRuns() {
+        return runs;
+    }
+
+    public synchronized long getFeatures() {
+        return features;
+    }
+
+    public synchronized long getCoordinates() {
+        return coordinates;
+    }
+
+    public synchronized long getFailedCoordinates() {
+        return failedCoordinates;
+    }
+
+    public synchronized long getTransformMillis() {
+        return transformNanos / 1000000;
+    }
+
+    public synchronized double getLastFeaturesPerSecond() {
+        return lastFeaturesPerSecond;
+    }
+
+    public synchronized double getLastCoordinatesPerSecond() {
+        return lastCoordinatesPerSecond;
+    }
+
+    public synchronized String getLastRun() {
+        return lastRun;
+    }
+
+    public long getCRSCacheHits() {
+        return CRSCache.getInstance().getCRSHits();
+    }
+
+    public long getCRSCacheMisses() {
+        return CRSCache.getInstance().getCRSMisses();
+    }
+
+    public long getOperationCacheHits() {
+        return CRSCache.getInstance().getOperationHits();
+    }
+
+    public long getOperationCacheMisses() {
+        return CRSCache.getInstance().getOperationMisses();
+    }
+}
@@ -0,0 +1,31 @@
+package org.openjump.core.ui.plugin.layer;
+
+/**
+ * JMX view of the reprojections done in this process.
+ */
+public interface ReprojectionStatsMBean {
+
+    long getRuns();
+
+    long getFeatures();
+
+    long getCoordinates();
+
+    long getFailedCoordinates();
+
+    long getTransformMillis();
+
+    double getLastFeaturesPerSecond();
+
+    double getLastCoordinatesPerSecond();
+
+    String getLastRun();
+
+    long getCRSCacheHits();
+
+    long getCRSCacheMisses();
+
+    long getOperationCacheHits();
+
+    long getOperationCacheMisses();
+}
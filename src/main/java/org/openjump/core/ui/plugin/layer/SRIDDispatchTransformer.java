@@ -0,0 +1,151 @@
+package org.openjump.core.ui.plugin.layer;
+
+import com.vividsolutions.jump.workbench.Logger;
+import org.cts.crs.CoordinateReferenceSystem;
+import org.cts.op.CoordinateOperation;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Geometry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transforms each geometry from the EPSG CRS given by its SRID, for layers
+ * whose geometries do not all share the same CRS (e.g. read from a database
+ * table with mixed SRIDs).
+ * Geometries without SRID (0) are transformed by the default transformer of
+ * the layer, geometries already in the target CRS are left unchanged.
+ * Operations are resolved once per (source, target) pair and kept in a
+ * bounded process-wide cache, then each dispatcher works on its own copies,
+ * so that failures are counted per layer.
+ * The coordinates of the geometries whose SRID cannot be resolved are set to
+ * NaN and counted as failures, like any coordinate which cannot be
+ * transformed, so that the {@link ErrorReport.Policy} of the caller applies
+ * to them.
+ */
+class SRIDDispatchTransformer extends CoordinateSequenceTransformer {
+
+    // shared transformers by (source, target) pair, in access order ; an
+    // empty value means that CTS has no operation between the two CRSs
+    private static final Map<Long,Optional<CoordinateSequenceTransformer>> TRANSFORMERS =
+            lruMap(Integer.getInteger("cts.cache.dispatch", 64));
+
+    private final CoordinateSequenceTransformer defaultTransformer;
+    private final int defaultSRID;
+    private final int targetSRID;
+    // copies of the shared transformers, by SRID, for the life of this dispatcher
+    private final ConcurrentMap<Integer,Optional<CoordinateSequenceTransformer>> copies =
+            new ConcurrentHashMap<>();
+    private final AtomicLong unresolved = new AtomicLong();
+
+    /**
+     * @param defaultTransformer transformer of geometries without SRID
+     * @param defaultSRID the EPSG code of the source CRS of defaultTransformer
+     * @param targetSRID the EPSG code of the target CRS
+     */
+    SRIDDispatchTransformer(CoordinateSequenceTransformer defaultTransformer, int defaultSRID, int targetSRID) {
+        super(defaultTransformer.getOperation(), defaultTransformer.getDomain());
+        this.defaultTransformer = defaultTransformer;
+        this.defaultSRID = defaultSRID;
+        this.targetSRID = targetSRID;
+    }
+
+    @Override
+    CoordinateSequenceTransformer copy() {
+        return new SRIDDispatchTransformer(defaultTransformer.copy(), defaultSRID, targetSRID);
+    }
+
+    @Override
+    public boolean transform(Geometry geometry) {
+        int srid = geometry.getSRID();
+        if (srid <= 0 || srid == defaultSRID) return defaultTransformer.transform(geometry);
+        if (srid == targetSRID) return true;
+        Optional<CoordinateSequenceTransformer> transformer = copies.computeIfAbsent(srid,
+                key -> getTransformer(key, targetSRID).map(CoordinateSequenceTransformer::copy));
+        if (!transformer.isPresent()) {
+            unresolved.addAndGet(geometry.getNumPoints());
+            countThreadFailures(geometry.getNumPoints());
+            forEachSequence(geometry, seq -> {
+                for (int i = 0 ; i < seq.size() ; i++) {
+                    seq.setOrdinate(i, CoordinateSequence.X, Double.NaN);
+                    seq.setOrdinate(i, CoordinateSequence.Y, Double.NaN);
+                    if (seq.hasZ()) seq.setOrdinate(i, CoordinateSequence.Z, Double.NaN);
+                }
+            });
+            geometry.geometryChanged();
+            return true;
+        }
+        return transformer.get().transform(geometry);
+    }
+
+    @Override
+    public void transform(CoordinateSequence seq) {
+        defaultTransformer.transform(seq);
+    }
+
+    private static <K,V> Map<K,V> lruMap(final int capacity) {
+        return new LinkedHashMap<K,V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K,V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the shared transformer from EPSG:src to EPSG:tgt, if CTS can
+     * resolve both CRSs and an operation between them. Failures to resolve
+     * a CRS are not cached, so that the next call tries again.
+     */
+    static Optional<CoordinateSequenceTransformer> getTransformer(int src, int tgt) {
+        Long key = ((long)src << 32) | (tgt & 0xFFFFFFFFL);
+        Optional<CoordinateSequenceTransformer> transformer;
+        synchronized (TRANSFORMERS) {
+            transformer = TRANSFORMERS.get(key);
+        }
+        if (transformer != null) return transformer;
+        // resolved out of the lock, as CRSCache does
+        try {
+            CRSCache cache = CRSCache.getInstance();
+            CoordinateReferenceSystem srcCRS = cache.getCRS("EPSG", Integer.toString(src));
+            CoordinateReferenceSystem tgtCRS = cache.getCRS("EPSG", Integer.toString(tgt));
+            CoordinateOperation op = cache.getOperation(srcCRS, tgtCRS);
+            if (op == null) {
+                Logger.warn("No coordinate operation found from EPSG:" + src + " to EPSG:" + tgt);
+                transformer = Optional.empty();
+            } else {
+                transformer = Optional.of(KernelCoordinateTransformer.create(srcCRS, tgtCRS, op));
+            }
+        } catch (Exception e) {
+            Logger.warn("Cannot transform geometries with SRID " + src + " to EPSG:" + tgt + " : " + e.getMessage());
+            return Optional.empty();
+        }
+        synchronized (TRANSFORMERS) {
+            Optional<CoordinateSequenceTransformer> old = TRANSFORMERS.get(key);
+            if (old != null) return old;
+            TRANSFORMERS.put(key, transformer);
+        }
+        return transformer;
+    }
+
+    /**
+     * @return the number of SRIDs met so far, other than the default and
+     * target ones
+     */
+    int getDispatchedSRIDCount() {
+        return copies.size();
+    }
+
+    @Override
+    public long getFailureCount() {
+        long count = unresolved.get() + defaultTransformer.getFailureCount();
+        for (Optional<CoordinateSequenceTransformer> transformer : copies.values()) {
+            if (transformer.isPresent()) count += transformer.get().getFailureCount();
+        }
+        return count;
+    }
+}
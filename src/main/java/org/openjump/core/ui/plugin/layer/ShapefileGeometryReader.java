@@ -0,0 +1,112 @@
+package org.openjump.core.ui.plugin.layer;
+
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequence;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads the records of a .shp file one by one.
+ * Only coordinates are needed for reprojection : each part of a shape is
+ * exposed as a LineString (or a Point) in a GeometryCollection, and the raw
+ * record content is kept as attributes, so that {@link ShapefileGeometryWriter}
+ * can write it back with transformed coordinates. Attributes (.dbf) and
+ * index (.shx) are not read, as they do not change.
+ */
+class ShapefileGeometryReader implements GeometryReader {
+
+    static final int HEADER_SIZE = 100;
+
+    private final DataInputStream dis;
+    private final GeometryFactory factory = new GeometryFactory();
+    final File file;
+    final byte[] header = new byte[HEADER_SIZE];
+
+    ShapefileGeometryReader(File file) throws IOException {
+        this.file = file;
+        this.dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        dis.readFully(header);
+        if (ByteBuffer.wrap(header).getInt(0) != 9994) {
+            dis.close();
+            throw new IOException(file + " is not a shapefile");
+        }
+    }
+
+    public GeometryRecord read() throws IOException {
+        try {
+            dis.readInt(); // record number
+        } catch (EOFException e) {
+            return null;
+        }
+        byte[] content = new byte[dis.readInt() * 2];
+        dis.readFully(content);
+        return new GeometryRecord(read(ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN)), content);
+    }
+
+    private Geometry read(ByteBuffer bb) throws IOException {
+        int type = bb.getInt(0);
+        boolean hasZ = hasZ(type);
+        if (type == 31) throw new IOException("MultiPatch shapes are not supported in " + file);
+        switch (type % 10) {
+            case 0 :
+                return factory.createGeometryCollection();
+            case 1 : {
+                double[] ords = hasZ ?
+                        new double[]{bb.getDouble(4), bb.getDouble(12), bb.getDouble(20)} :
+                        new double[]{bb.getDouble(4), bb.getDouble(12)};
+                return factory.createPoint(new PackedCoordinateSequence.Double(ords, ords.length, 0));
+            }
+            case 3 :
+            case 5 : {
+                int numParts = bb.getInt(36);
+                int numPoints = bb.getInt(40);
+                int points = 44 + 4 * numParts;
+                Geometry[] parts = new Geometry[numParts];
+                for (int i = 0 ; i < numParts ; i++) {
+                    int start = bb.getInt(44 + 4 * i);
+                    int end = i < numParts - 1 ? bb.getInt(44 + 4 * (i + 1)) : numPoints;
+                    parts[i] = createPart(read(bb, points, numPoints, start, end, hasZ));
+                }
+                return factory.createGeometryCollection(parts);
+            }
+            case 8 : {
+                int numPoints = bb.getInt(36);
+                return createPart(read(bb, 40, numPoints, 0, numPoints, hasZ));
+            }
+            default :
+                throw new IOException("Unsupported shape type " + type + " in " + file);
+        }
+    }
+
+    static boolean hasZ(int type) {
+        return type / 10 == 1;
+    }
+
+    private Geometry createPart(CoordinateSequence seq) {
+        return seq.size() == 1 ? factory.createPoint(seq) : factory.createLineString(seq);
+    }
+
+    /**
+     * Reads points [start, end[ of the point array located at offset.
+     * Z values, if any, are located after the points and the z range.
+     */
+    private static CoordinateSequence read(ByteBuffer bb, int offset, int numPoints, int start, int end, boolean hasZ) {
+        int dim = hasZ ? 3 : 2;
+        double[] ords = new double[(end - start) * dim];
+        int zOffset = offset + 16 * numPoints + 16;
+        for (int i = start, j = 0 ; i < end ; i++) {
+            ords[j++] = bb.getDouble(offset + 16 * i);
+            ords[j++] = bb.getDouble(offset + 16 * i + 8);
+            if (hasZ) ords[j++] = bb.getDouble(zOffset + 8 * i);
+        }
+        return new PackedCoordinateSequence.Double(ords, dim, 0);
+    }
+
+    public void close() throws IOException {
+        dis.close();
+    }
+}
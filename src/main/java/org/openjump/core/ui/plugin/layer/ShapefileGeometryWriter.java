@@ -0,0 +1,143 @@
+package org.openjump.core.ui.plugin.layer;
+
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Point;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the records of a {@link ShapefileGeometryReader} with transformed
+ * coordinates. Transformed shapes have the same size as the source ones, so
+ * that the index (.shx) and the attributes (.dbf, .cpg) are copied from the
+ * source shapefile, only the bounding boxes being updated.
+ * The source .prj is not copied, as it does not describe the new CRS.
+ */
+class ShapefileGeometryWriter implements GeometryWriter {
+
+    private static final String[] COPIED_EXTENSIONS = new String[]{"shx", "dbf", "cpg"};
+
+    private final File file;
+    private final ShapefileGeometryReader source;
+    private final DataOutputStream dos;
+    private final Envelope envelope = new Envelope();
+    private double zmin = Double.POSITIVE_INFINITY;
+    private double zmax = Double.NEGATIVE_INFINITY;
+    private int recordNumber = 1;
+
+    ShapefileGeometryWriter(File file, ShapefileGeometryReader source) throws IOException {
+        this.file = file;
+        this.source = source;
+        this.dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        dos.write(source.header);
+    }
+
+    public void write(GeometryRecord record) throws IOException {
+        byte[] content = (byte[])record.attributes;
+        final ByteBuffer bb = ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN);
+        int type = bb.getInt(0);
+        final boolean hasZ = ShapefileGeometryReader.hasZ(type);
+        if (type % 10 == 1) {
+            CoordinateSequence seq = ((Point)record.geometry).getCoordinateSequence();
+            bb.putDouble(4, seq.getX(0));
+            bb.putDouble(12, seq.getY(0));
+            envelope.expandToInclude(seq.getX(0), seq.getY(0));
+            if (hasZ) {
+                bb.putDouble(20, seq.getZ(0));
+                expandZ(seq.getZ(0));
+            }
+        } else if (type != 0) {
+            final int numPoints;
+            final int offset;
+            if (type % 10 == 8) {
+                numPoints = bb.getInt(36);
+                offset = 40;
+            } else {
+                numPoints = bb.getInt(40);
+                offset = 44 + 4 * bb.getInt(36);
+            }
+            final int zOffset = offset + 16 * numPoints + 16;
+            final Envelope shapeEnvelope = new Envelope();
+            final double[] zRange = new double[]{Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+            final int[] index = new int[1];
+            CoordinateSequenceTransformer.forEachSequence(record.geometry, seq -> {
+                for (int j = 0 ; j < seq.size() ; j++) {
+                    int i = index[0]++;
+                    bb.putDouble(offset + 16 * i, seq.getX(j));
+                    bb.putDouble(offset + 16 * i + 8, seq.getY(j));
+                    shapeEnvelope.expandToInclude(seq.getX(j), seq.getY(j));
+                    if (hasZ) {
+                        bb.putDouble(zOffset + 8 * i, seq.getZ(j));
+                        zRange[0] = Math.min(zRange[0], seq.getZ(j));
+                        zRange[1] = Math.max(zRange[1], seq.getZ(j));
+                    }
+                }
+            });
+            if (!shapeEnvelope.isNull()) {
+                bb.putDouble(4, shapeEnvelope.getMinX());
+                bb.putDouble(12, shapeEnvelope.getMinY());
+                bb.putDouble(20, shapeEnvelope.getMaxX());
+                bb.putDouble(28, shapeEnvelope.getMaxY());
+                envelope.expandToInclude(shapeEnvelope);
+            }
+            if (hasZ && numPoints > 0) {
+                bb.putDouble(zOffset - 16, zRange[0]);
+                bb.putDouble(zOffset - 8, zRange[1]);
+                expandZ(zRange[0]);
+                expandZ(zRange[1]);
+            }
+        }
+        dos.writeInt(recordNumber++);
+        dos.writeInt(content.length / 2);
+        dos.write(content);
+    }
+
+    private void expandZ(double z) {
+        zmin = Math.min(zmin, z);
+        zmax = Math.max(zmax, z);
+    }
+
+    public void close() throws IOException {
+        dos.close();
+        String srcBase = getBaseName(source.file);
+        String tgtBase = getBaseName(file);
+        for (String ext : COPIED_EXTENSIONS) {
+            File src = new File(srcBase + "." + ext);
+            if (!src.exists()) src = new File(srcBase + "." + ext.toUpperCase());
+            if (src.exists()) {
+                Files.copy(src.toPath(), new File(tgtBase + "." + ext).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        updateHeader(file);
+        File shx = new File(tgtBase + ".shx");
+        if (shx.exists()) updateHeader(shx);
+    }
+
+    /**
+     * Writes the bounding box of the transformed shapes in the header of a
+     * .shp or .shx file.
+     */
+    private void updateHeader(File file) throws IOException {
+        if (envelope.isNull()) return;
+        ByteBuffer bb = ByteBuffer.allocate(48).order(ByteOrder.LITTLE_ENDIAN);
+        bb.putDouble(envelope.getMinX()).putDouble(envelope.getMinY())
+                .putDouble(envelope.getMaxX()).putDouble(envelope.getMaxY());
+        bb.putDouble(zmin <= zmax ? zmin : 0).putDouble(zmin <= zmax ? zmax : 0);
+        bb.flip();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.write(bb, 36);
+        }
+    }
+
+    private static String getBaseName(File file) {
+        String path = file.getPath();
+        int dot = path.lastIndexOf('.');
+        return dot > path.lastIndexOf(File.separatorChar) ? path.substring(0, dot) : path;
+    }
+}
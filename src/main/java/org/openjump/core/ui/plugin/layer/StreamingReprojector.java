@@ -0,0 +1,152 @@
+package org.openjump.core.ui.plugin.layer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Reprojects a file into another one without loading it in memory.
+ * Records are read by batches in the calling thread, transformed by a pool
+ * of worker threads and written back in their original order. The number of
+ * batches in flight is bounded : when it is reached, reading waits for the
+ * oldest batch to be written, so that memory does not depend on the size of
+ * the input.
+ */
+class StreamingReprojector implements AutoCloseable {
+
+    static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final CoordinateSequenceTransformer transformer;
+    private final ExecutorService executor;
+    private final int batchSize;
+    private final int maxBatches;
+
+    StreamingReprojector(CoordinateSequenceTransformer transformer, int threads, int batchSize) {
+        this.transformer = transformer;
+        this.batchSize = batchSize;
+        this.maxBatches = 2 * threads;
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "CTS stream worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Reprojects src into tgt. Supported formats are shapefiles (.shp) and
+     * delimited text files (.csv, .txt).
+     * @return the number of records written
+     * @throws IOException if tgt would overwrite src or one of its sidecar
+     * files
+     */
+    long reproject(File src, File tgt) throws IOException {
+        if (isSameDataset(src, tgt)) {
+            throw new IOException(tgt + " would overwrite " + src);
+        }
+        try (GeometryReader reader = openReader(src);
+             GeometryWriter writer = openWriter(tgt, reader)) {
+            return reproject(reader, writer);
+        }
+    }
+
+    /**
+     * @return true if tgt resolves to src or to one of its sidecar files
+     * (same name with another extension, e.g. .dbf and .shx of a shapefile)
+     */
+    static boolean isSameDataset(File src, File tgt) {
+        try {
+            File file = src.getCanonicalFile();
+            File output = tgt.getCanonicalFile();
+            return file.getParentFile().equals(output.getParentFile()) &&
+                    baseName(file).equalsIgnoreCase(baseName(output));
+        } catch (IOException e) {
+            // cannot be checked : do not take the risk to overwrite src
+            return true;
+        }
+    }
+
+    private static String baseName(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? name : name.substring(0, dot);
+    }
+
+    /**
+     * @return the number of records written
+     */
+    long reproject(GeometryReader reader, GeometryWriter writer) throws IOException {
+        Deque<Future<List<GeometryRecord>>> pending = new ArrayDeque<>();
+        long count = 0;
+        try {
+            List<GeometryRecord> batch;
+            while (!(batch = readBatch(reader)).isEmpty()) {
+                final List<GeometryRecord> records = batch;
+                pending.add(executor.submit(() -> {
+                    for (GeometryRecord record : records) {
+                        transformer.transform(record.geometry);
+                    }
+                    return records;
+                }));
+                if (pending.size() >= maxBatches) count += write(pending.poll(), writer);
+            }
+            while (!pending.isEmpty()) count += write(pending.poll(), writer);
+        } finally {
+            for (Future<?> future : pending) future.cancel(true);
+        }
+        return count;
+    }
+
+    private List<GeometryRecord> readBatch(GeometryReader reader) throws IOException {
+        List<GeometryRecord> batch = new ArrayList<>(batchSize);
+        GeometryRecord record;
+        while (batch.size() < batchSize && null != (record = reader.read())) {
+            batch.add(record);
+        }
+        return batch;
+    }
+
+    private int write(Future<List<GeometryRecord>> future, GeometryWriter writer) throws IOException {
+        List<GeometryRecord> records;
+        try {
+            records = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+            if (e.getCause() instanceof Error) throw (Error)e.getCause();
+            throw new IOException(e.getCause());
+        }
+        for (GeometryRecord record : records) {
+            writer.write(record);
+        }
+        return records.size();
+    }
+
+    static GeometryReader openReader(File file) throws IOException {
+        String name = file.getName().toLowerCase();
+        if (name.endsWith(".shp")) return new ShapefileGeometryReader(file);
+        if (name.endsWith(".csv") || name.endsWith(".txt")) return new CsvGeometryReader(file);
+        throw new IOException("Unsupported file format : " + file);
+    }
+
+    static GeometryWriter openWriter(File file, GeometryReader reader) throws IOException {
+        if (reader instanceof ShapefileGeometryReader) {
+            return new ShapefileGeometryWriter(file, (ShapefileGeometryReader)reader);
+        }
+        if (reader instanceof CsvGeometryReader) {
+            return new CsvGeometryWriter(file, (CsvGeometryReader)reader);
+        }
+        throw new IOException("Unsupported file format : " + file);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,265 @@
+package org.openjump.core.ui.plugin.layer;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writer of uncompressed tiled TIFF files, tile by tile and in any order.
+ * The header and the directory are written when the file is created, all
+ * tiles having a fixed position, so that several threads may write their
+ * tiles at the same time and that the whole image never has to be held in
+ * memory. Tiles which are never written are left blank (zeros).
+ * <p>
+ * Files larger than 4 GB are written as BigTIFF (64 bits offsets), which is
+ * read by GDAL and by most GIS, but not by all TIFF readers.
+ */
+final class TiledTiffWriter implements Closeable {
+
+    private static final int IMAGE_WIDTH = 256;
+    private static final int IMAGE_LENGTH = 257;
+    private static final int BITS_PER_SAMPLE = 258;
+    private static final int COMPRESSION = 259;
+    private static final int PHOTOMETRIC = 262;
+    private static final int SAMPLES_PER_PIXEL = 277;
+    private static final int PLANAR_CONFIGURATION = 284;
+    private static final int TILE_WIDTH = 322;
+    private static final int TILE_LENGTH = 323;
+    private static final int TILE_OFFSETS = 324;
+    private static final int TILE_BYTE_COUNTS = 325;
+    private static final int EXTRA_SAMPLES = 338;
+    private static final int SAMPLE_FORMAT = 339;
+
+    private static final short SHORT = 3;
+    private static final short LONG = 4;
+    private static final short LONG8 = 16;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int bands;
+    private final int dataType;
+    private final int bytesPerSample;
+    private final int tilesAcross;
+    private final long tileBytes;
+    private final long dataOffset;
+    private final boolean bigTiff;
+
+    /**
+     * Creates file, with its directory, as a BigTIFF file if it exceeds the
+     * 4 GB of a TIFF file.
+     * @param tileSize width and height of the tiles, a multiple of 16
+     * @param dataType a DataBuffer type
+     */
+    TiledTiffWriter(File file, int width, int height, int tileSize, int bands, int dataType) throws IOException {
+        this(file, width, height, tileSize, bands, dataType, false);
+    }
+
+    /**
+     * @param forceBigTiff write a BigTIFF file whatever its size
+     */
+    TiledTiffWriter(File file, int width, int height, int tileSize, int bands, int dataType,
+                    boolean forceBigTiff) throws IOException {
+        if (tileSize % 16 != 0) throw new IllegalArgumentException("Tile size must be a multiple of 16");
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.bands = bands;
+        this.dataType = dataType;
+        this.bytesPerSample = DataBuffer.getDataTypeSize(dataType) / 8;
+        this.tilesAcross = (width + tileSize - 1) / tileSize;
+        int tilesDown = (height + tileSize - 1) / tileSize;
+        int tiles = tilesAcross * tilesDown;
+        this.tileBytes = (long)tileSize * tileSize * bands * bytesPerSample;
+
+        boolean rgb = bands >= 3 && dataType == DataBuffer.TYPE_BYTE;
+        int extraSamples = bands - (rgb ? 3 : 1);
+        int entries = 12 + (extraSamples > 0 ? 1 : 0);
+        long classicOffset = getDataOffset(false, entries, bands, extraSamples, tiles);
+        this.bigTiff = forceBigTiff || classicOffset + tiles * tileBytes > 0xFFFFFFFFL;
+        this.dataOffset = bigTiff ? getDataOffset(true, entries, bands, extraSamples, tiles) : classicOffset;
+        long length = dataOffset + tiles * tileBytes;
+
+        ByteBuffer header = ByteBuffer.allocate((int)dataOffset).order(ByteOrder.BIG_ENDIAN);
+        header.put((byte)'M').put((byte)'M');
+        if (bigTiff) {
+            header.putShort((short)43).putShort((short)8).putShort((short)0).putLong(16);
+            header.putLong(entries);
+        } else {
+            header.putShort((short)42).putInt(8);
+            header.putShort((short)entries);
+        }
+        // values which do not fit in their entry follow the directory
+        long offset = getDirectoryEnd(bigTiff, entries);
+        long[] bits = new long[bands];
+        long[] formats = new long[bands];
+        for (int i = 0 ; i < bands ; i++) {
+            bits[i] = 8 * bytesPerSample;
+            formats[i] = getSampleFormat(dataType);
+        }
+        long[] extras = new long[Math.max(0, extraSamples)];
+        // a fourth byte band of an RGB image is its alpha channel
+        if (rgb && extraSamples > 0) extras[0] = 2;
+        long[] offsets = new long[tiles];
+        long[] counts = new long[tiles];
+        for (int i = 0 ; i < tiles ; i++) {
+            offsets[i] = dataOffset + i * tileBytes;
+            counts[i] = tileBytes;
+        }
+        offset = putEntry(header, IMAGE_WIDTH, LONG, new long[]{width}, offset);
+        offset = putEntry(header, IMAGE_LENGTH, LONG, new long[]{height}, offset);
+        offset = putEntry(header, BITS_PER_SAMPLE, SHORT, bits, offset);
+        offset = putEntry(header, COMPRESSION, SHORT, new long[]{1}, offset);
+        offset = putEntry(header, PHOTOMETRIC, SHORT, new long[]{rgb ? 2 : 1}, offset);
+        offset = putEntry(header, SAMPLES_PER_PIXEL, SHORT, new long[]{bands}, offset);
+        offset = putEntry(header, PLANAR_CONFIGURATION, SHORT, new long[]{1}, offset);
+        offset = putEntry(header, TILE_WIDTH, LONG, new long[]{tileSize}, offset);
+        offset = putEntry(header, TILE_LENGTH, LONG, new long[]{tileSize}, offset);
+        offset = putEntry(header, TILE_OFFSETS, bigTiff ? LONG8 : LONG, offsets, offset);
+        offset = putEntry(header, TILE_BYTE_COUNTS, LONG, counts, offset);
+        if (extraSamples > 0) offset = putEntry(header, EXTRA_SAMPLES, SHORT, extras, offset);
+        putEntry(header, SAMPLE_FORMAT, SHORT, formats, offset);
+        // no next directory
+        if (bigTiff) header.putLong(0); else header.putInt(0);
+        header.clear();
+
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+        this.file.setLength(length);
+        write(header, 0);
+    }
+
+    /**
+     * @return the offset following the header and the directory
+     */
+    private static long getDirectoryEnd(boolean bigTiff, int entries) {
+        return bigTiff ? 16 + 8 + 20L * entries + 8 : 8 + 2 + 12L * entries + 4;
+    }
+
+    /**
+     * @return the offset of the first tile : after the header, the directory
+     * and the values which do not fit in their entries
+     */
+    private static long getDataOffset(boolean bigTiff, int entries, int bands, int extraSamples, int tiles) {
+        int inline = bigTiff ? 8 : 4;
+        long offset = getDirectoryEnd(bigTiff, entries);
+        // bits per sample and sample formats
+        if (2 * bands > inline) offset += 2 * 2L * bands;
+        if (2 * extraSamples > inline) offset += 2L * extraSamples;
+        // tile offsets and byte counts
+        if ((bigTiff ? 8 : 4) * tiles > inline) offset += (bigTiff ? 8L : 4L) * tiles;
+        if (4 * tiles > inline) offset += 4L * tiles;
+        return (offset + 7) / 8 * 8;
+    }
+
+    private static int getSampleFormat(int dataType) {
+        switch (dataType) {
+            case DataBuffer.TYPE_BYTE:
+            case DataBuffer.TYPE_USHORT:
+                return 1;
+            case DataBuffer.TYPE_SHORT:
+            case DataBuffer.TYPE_INT:
+                return 2;
+            case DataBuffer.TYPE_FLOAT:
+            case DataBuffer.TYPE_DOUBLE:
+                return 3;
+            default:
+                throw new IllegalArgumentException("Unsupported data type " + dataType);
+        }
+    }
+
+    /**
+     * Puts the directory entry of tag into ifd, its values being written at
+     * offset if they do not fit in the entry.
+     * @return the offset following the values written at offset
+     */
+    private long putEntry(ByteBuffer ifd, int tag, short type, long[] values, long offset) {
+        int size = type == SHORT ? 2 : type == LONG ? 4 : 8;
+        int inline = bigTiff ? 8 : 4;
+        ifd.putShort((short)tag).putShort(type);
+        if (bigTiff) ifd.putLong(values.length); else ifd.putInt(values.length);
+        int position = ifd.position();
+        int next = position + inline;
+        if (values.length * size > inline) {
+            if (bigTiff) ifd.putLong(offset); else ifd.putInt((int)offset);
+            position = (int)offset;
+            offset += (long)values.length * size;
+        }
+        for (long value : values) {
+            switch (size) {
+                case 2:  ifd.putShort(position, (short)value); break;
+                case 4:  ifd.putInt(position, (int)value); break;
+                default: ifd.putLong(position, value);
+            }
+            position += size;
+        }
+        ifd.position(next);
+        return offset;
+    }
+
+    boolean isBigTiff() {
+        return bigTiff;
+    }
+
+    int getTilesAcross() {
+        return tilesAcross;
+    }
+
+    int getTilesDown() {
+        return (height + tileSize - 1) / tileSize;
+    }
+
+    int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Writes the tile of column tx and row ty, whose pixels are those of
+     * raster from its origin ; pixels of the tile out of raster or out of
+     * the image are left blank. This method may be called by several
+     * threads at a time.
+     */
+    void writeTile(int tx, int ty, Raster raster) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int)tileBytes).order(ByteOrder.BIG_ENDIAN);
+        int w = Math.min(Math.min(tileSize, width - tx * tileSize), raster.getWidth());
+        int h = Math.min(Math.min(tileSize, height - ty * tileSize), raster.getHeight());
+        int x0 = raster.getMinX(), y0 = raster.getMinY();
+        int rowBytes = tileSize * bands * bytesPerSample;
+        double[] samples = new double[w * bands];
+        for (int y = 0 ; y < h ; y++) {
+            raster.getPixels(x0, y0 + y, w, 1, samples);
+            buffer.position(y * rowBytes);
+            for (double sample : samples) {
+                switch (dataType) {
+                    case DataBuffer.TYPE_BYTE:   buffer.put((byte)(int)sample); break;
+                    case DataBuffer.TYPE_USHORT:
+                    case DataBuffer.TYPE_SHORT:  buffer.putShort((short)(int)sample); break;
+                    case DataBuffer.TYPE_INT:    buffer.putInt((int)sample); break;
+                    case DataBuffer.TYPE_FLOAT:  buffer.putFloat((float)sample); break;
+                    default:                     buffer.putDouble(sample);
+                }
+            }
+        }
+        buffer.clear();
+        write(buffer, dataOffset + ((long)ty * tilesAcross + tx) * tileBytes);
+    }
+
+    private void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,268 @@
+package org.openjump.core.ui.plugin.layer;
+
+import com.vividsolutions.jump.coordsys.CoordinateSystem;
+import com.vividsolutions.jump.workbench.WorkbenchContext;
+import org.cts.crs.CRSException;
+import org.cts.crs.CoordinateReferenceSystem;
+import org.cts.op.CoordinateOperationException;
+import org.cts.registry.RegistryException;
+import org.locationtech.jts.geom.Geometry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Coordinate transformation service shared by the plugins of the workbench
+ * (importers, database readers, measure tools...), registered in the
+ * workbench {@link com.vividsolutions.jump.workbench.registry.Registry} by
+ * {@link CTSExtension} :
+ * <pre>
+ * TransformationService service = TransformationService.get(workbenchContext);
+ * Geometry g = service.transform(geometry, "EPSG:4326", "EPSG:2154");
+ * </pre>
+ * CRSs are resolved once through {@link CRSCache}, and the
+ * {@link ReprojectionEngine} of each pair of CRSs (with its operation and
+ * kernel) is kept in a bounded cache, so that plugins do not resolve them
+ * again. Batches are split into chunks transformed by a bounded pool of
+ * daemon threads shared by all the callers.
+ * <p>
+ * This class is thread-safe. Coordinates which cannot be transformed are
+ * set to NaN.
+ */
+public final class TransformationService {
+
+    public static final String REGISTRY_CLASSIFICATION = TransformationService.class.getName();
+
+    private static final TransformationService INSTANCE = new TransformationService(
+            Integer.getInteger("cts.cache.engines", 64),
+            Integer.getInteger("cts.service.threads", Runtime.getRuntime().availableProcessors()));
+
+    // number of geometries of a batch transformed by a task
+    static final int CHUNK_SIZE = 1000;
+
+    private final Map<String,ReprojectionEngine> engines;
+    private final Map<String,CoordinateSystem> coordinateSystems = new ConcurrentHashMap<>();
+    private final int threads;
+    private volatile ExecutorService executor;
+
+    TransformationService(final int engineCapacity, int threads) {
+        this.engines = new LinkedHashMap<String,ReprojectionEngine>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,ReprojectionEngine> eldest) {
+                return size() > engineCapacity;
+            }
+        };
+        this.threads = Math.max(1, threads);
+    }
+
+    public static TransformationService getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the service registered in the workbench of context, or null if
+     * the CTS extension has not been loaded
+     */
+    public static TransformationService get(WorkbenchContext context) {
+        List<?> entries = context.getRegistry().getEntries(REGISTRY_CLASSIFICATION);
+        return entries.isEmpty() ? null : (TransformationService)entries.get(0);
+    }
+
+    /**
+     * Registers this service in the workbench of context.
+     */
+    void register(WorkbenchContext context) {
+        if (get(context) == null) context.getRegistry().createEntry(REGISTRY_CLASSIFICATION, this);
+    }
+
+    /**
+     * @param crs a CRS code as registry:code, e.g. EPSG:2154 or IGNF:LAMB93
+     */
+    public CoordinateReferenceSystem getCRS(String crs) throws RegistryException, CRSException {
+        int colon = crs.indexOf(':');
+        if (colon < 0) throw new RegistryException("Invalid CRS code " + crs + " : registry:code expected");
+        return CRSCache.getInstance().getCRS(crs.substring(0, colon).trim().toUpperCase(),
+                crs.substring(colon + 1).trim());
+    }
+
+    /**
+     * @return the OpenJUMP CoordinateSystem of crs (registry:code), e.g. to
+     * be set on the feature schema of a layer
+     */
+    public CoordinateSystem getCoordinateSystem(String crs) throws RegistryException, CRSException {
+        CoordinateSystem cs = coordinateSystems.get(crs);
+        if (cs == null) {
+            cs = new CoordinateSystemWrapper(getCRS(crs));
+            CoordinateSystem old = coordinateSystems.putIfAbsent(crs, cs);
+            if (old != null) cs = old;
+        }
+        return cs;
+    }
+
+    /**
+     * @return the engine transforming from srcCRS to tgtCRS, shared by all
+     * the callers
+     * @throws CoordinateOperationException if CTS cannot find any operation
+     * between them
+     */
+    public ReprojectionEngine getEngine(CoordinateReferenceSystem srcCRS, CoordinateReferenceSystem tgtCRS)
+            throws CoordinateOperationException {
+        ReprojectionEngine engine = findEngine(srcCRS, tgtCRS);
+        if (engine == null) {
+            throw new CoordinateOperationException("No coordinate operation found from " + srcCRS + " to " + tgtCRS);
+        }
+        return engine;
+    }
+
+    /**
+     * Same as {@link #getEngine(CoordinateReferenceSystem, CoordinateReferenceSystem)},
+     * returning null if CTS cannot find any operation.
+     */
+    ReprojectionEngine findEngine(CoordinateReferenceSystem srcCRS, CoordinateReferenceSystem tgtCRS)
+            throws CoordinateOperationException {
+        String key = getEngineKey(srcCRS, tgtCRS);
+        ReprojectionEngine engine;
+        synchronized (engines) {
+            engine = engines.get(key);
+        }
+        if (engine != null) return engine;
+        // resolved out of the lock : two threads may resolve the same engine
+        // once, the first one being kept
+        engine = ReprojectionEngine.create(srcCRS, tgtCRS);
+        if (engine == null) return null;
+        synchronized (engines) {
+            ReprojectionEngine old = engines.get(key);
+            if (old != null) return old;
+            engines.put(key, engine);
+        }
+        return engine;
+    }
+
+    /**
+     * @return the key of the engine from srcCRS to tgtCRS : the CRSs without
+     * registry identifier (e.g. read from a PRJ file) are told apart by
+     * their definition
+     */
+    private static String getEngineKey(CoordinateReferenceSystem srcCRS, CoordinateReferenceSystem tgtCRS) {
+        if (OperationSnapshot.isPersistent(srcCRS) && OperationSnapshot.isPersistent(tgtCRS)) {
+            return OperationSnapshot.getKey(srcCRS, tgtCRS);
+        }
+        return srcCRS.toWKT() + " -> " + tgtCRS.toWKT();
+    }
+
+    /**
+     * @param srcCRS source CRS as registry:code
+     * @param tgtCRS target CRS as registry:code
+     */
+    public ReprojectionEngine getEngine(String srcCRS, String tgtCRS)
+            throws RegistryException, CRSException, CoordinateOperationException {
+        return getEngine(getCRS(srcCRS), getCRS(tgtCRS));
+    }
+
+    /**
+     * @return a transformed copy of geometry, from srcCRS to tgtCRS (as
+     * registry:code)
+     */
+    public Geometry transform(Geometry geometry, String srcCRS, String tgtCRS)
+            throws RegistryException, CRSException, CoordinateOperationException {
+        return getEngine(srcCRS, tgtCRS).transform(geometry);
+    }
+
+    /**
+     * @return a transformed copy of geometry, from srcCRS to tgtCRS
+     */
+    public Geometry transform(Geometry geometry, CoordinateReferenceSystem srcCRS, CoordinateReferenceSystem tgtCRS)
+            throws CoordinateOperationException {
+        return getEngine(srcCRS, tgtCRS).transform(geometry);
+    }
+
+    /**
+     * @return transformed copies of geometries, from srcCRS to tgtCRS (as
+     * registry:code), in the same order
+     */
+    public List<Geometry> transform(List<Geometry> geometries, String srcCRS, String tgtCRS)
+            throws RegistryException, CRSException, CoordinateOperationException, InterruptedException {
+        return transform(geometries, getEngine(srcCRS, tgtCRS));
+    }
+
+    /**
+     * @return transformed copies of geometries, from srcCRS to tgtCRS, in
+     * the same order
+     */
+    public List<Geometry> transform(List<Geometry> geometries, CoordinateReferenceSystem srcCRS,
+                                    CoordinateReferenceSystem tgtCRS)
+            throws CoordinateOperationException, InterruptedException {
+        return transform(geometries, getEngine(srcCRS, tgtCRS));
+    }
+
+    private List<Geometry> transform(final List<Geometry> geometries, final ReprojectionEngine engine)
+            throws InterruptedException {
+        final int size = geometries.size();
+        final Geometry[] result = new Geometry[size];
+        if (size <= CHUNK_SIZE || threads == 1) {
+            for (int i = 0 ; i < size ; i++) result[i] = engine.transform(geometries.get(i));
+            return new ArrayList<>(Arrays.asList(result));
+        }
+        ExecutorService executor = getExecutor();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int start = 0 ; start < size ; start += CHUNK_SIZE) {
+            final int from = start;
+            final int to = Math.min(start + CHUNK_SIZE, size);
+            futures.add(executor.submit(() -> {
+                for (int i = from ; i < to ; i++) result[i] = engine.transform(geometries.get(i));
+            }));
+        }
+        try {
+            for (Future<?> future : futures) future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+            if (e.getCause() instanceof Error) throw (Error)e.getCause();
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            for (Future<?> future : futures) future.cancel(true);
+        }
+        return new ArrayList<>(Arrays.asList(result));
+    }
+
+    /**
+     * @return the pool of the batches, created on first use, which other
+     * classes of the plugin may share for short tasks
+     */
+    ExecutorService getExecutor() {
+        ExecutorService pool = executor;
+        if (pool == null) {
+            synchronized (this) {
+                pool = executor;
+                if (pool == null) {
+                    executor = pool = Executors.newFixedThreadPool(threads, r -> {
+                        Thread thread = new Thread(r, "CTS service");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * @return the number of engines currently cached
+     */
+    int getEngineCount() {
+        synchronized (engines) {
+            return engines.size();
+        }
+    }
+
+    public String toString() {
+        return "TransformationService[" + getEngineCount() + " engines, " + threads + " threads]";
+    }
+}
@@ -0,0 +1,68 @@
+package org.openjump.core.ui.plugin.layer;
+
+import com.vividsolutions.jump.workbench.Logger;
+import org.cts.crs.CoordinateReferenceSystem;
+import org.cts.cs.Axis;
+
+/**
+ * Domain of the source coordinates a transformer may try to transform,
+ * checked before calling the CTS operation, so that coordinates which are
+ * bound to fail (NaN, infinite, or latitudes beyond the poles) are rejected
+ * without building, throwing and catching an exception.
+ * <p>
+ * The domain is computed once from the WKT of the source CRS : for a
+ * geographic CRS, latitudes must lie within +/-90 degrees and longitudes
+ * within +/-360 degrees, in the angular unit of the CRS ; other CRSs only
+ * require finite coordinates, the CTS operation deciding for the others.
+ */
+final class ValidityDomain {
+
+    static final ValidityDomain ANY = new ValidityDomain(
+            -Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE);
+
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+
+    private ValidityDomain(double minX, double minY, double maxX, double maxY) {
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+
+    /**
+     * @return the domain of the coordinates of crs
+     */
+    static ValidityDomain of(CoordinateReferenceSystem crs) {
+        try {
+            WktNode root = WktNode.parse(crs.toWKT());
+            if (!root.keyword.equals("GEOGCS")) return ANY;
+            WktNode unit = root.get("UNIT");
+            // length of the angular unit in radians
+            double radians = unit == null ? Math.PI / 180 : unit.getNumber(0);
+            double lat = Math.PI / 2 / radians;
+            double lon = 2 * Math.PI / radians;
+            return crs.getCoordinateSystem().getAxis(0) == Axis.LATITUDE ?
+                    new ValidityDomain(-lat, -lon, lat, lon) :
+                    new ValidityDomain(-lon, -lat, lon, lat);
+        } catch (RuntimeException e) {
+            Logger.debug("No validity domain for " + crs + " : " + e);
+            return ANY;
+        }
+    }
+
+    /**
+     * @return false if (x, y) cannot be transformed, including NaN and
+     * infinite values
+     */
+    boolean contains(double x, double y) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY;
+    }
+
+    public String toString() {
+        return this == ANY ? "ValidityDomain[finite]" :
+                "ValidityDomain[" + minX + " " + minY + ", " + maxX + " " + maxY + "]";
+    }
+}
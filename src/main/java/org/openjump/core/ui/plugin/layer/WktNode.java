@@ -0,0 +1,127 @@
+package org.openjump.core.ui.plugin.layer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal parser of OGC WKT 1 CRS definitions, as exported by CTS : a node
+ * is a keyword followed by bracketed values, which are quoted strings,
+ * numbers or nested nodes.
+ */
+final class WktNode {
+
+    final String keyword;
+    final List<Object> values = new ArrayList<>();
+
+    private WktNode(String keyword) {
+        this.keyword = keyword;
+    }
+
+    /**
+     * @throws IllegalArgumentException if wkt cannot be parsed
+     */
+    static WktNode parse(String wkt) {
+        int[] pos = new int[1];
+        WktNode node = parse(wkt, pos);
+        skipSpaces(wkt, pos);
+        if (pos[0] != wkt.length()) throw new IllegalArgumentException("Unexpected characters at " + pos[0]);
+        return node;
+    }
+
+    private static WktNode parse(String wkt, int[] pos) {
+        Object value = parseWord(wkt, pos);
+        if (value instanceof WktNode) return (WktNode)value;
+        throw new IllegalArgumentException("Bracket expected after " + value);
+    }
+
+    /**
+     * Parses a node, or a bare word such as the direction of an AXIS.
+     */
+    private static Object parseWord(String wkt, int[] pos) {
+        skipSpaces(wkt, pos);
+        int start = pos[0];
+        while (pos[0] < wkt.length() && (Character.isLetterOrDigit(wkt.charAt(pos[0])) || wkt.charAt(pos[0]) == '_')) {
+            pos[0]++;
+        }
+        String word = wkt.substring(start, pos[0]);
+        if (word.isEmpty()) throw new IllegalArgumentException("Keyword expected at " + start);
+        skipSpaces(wkt, pos);
+        if (pos[0] >= wkt.length() || (wkt.charAt(pos[0]) != '[' && wkt.charAt(pos[0]) != '(')) {
+            return word;
+        }
+        WktNode node = new WktNode(word.toUpperCase());
+        char close = wkt.charAt(pos[0]++) == '[' ? ']' : ')';
+        while (true) {
+            skipSpaces(wkt, pos);
+            if (pos[0] >= wkt.length()) throw new IllegalArgumentException("Unclosed " + node.keyword);
+            char c = wkt.charAt(pos[0]);
+            if (c == close) {
+                pos[0]++;
+                return node;
+            } else if (c == ',') {
+                pos[0]++;
+            } else if (c == '"') {
+                int end = wkt.indexOf('"', pos[0] + 1);
+                if (end < 0) throw new IllegalArgumentException("Unclosed string at " + pos[0]);
+                node.values.add(wkt.substring(pos[0] + 1, end));
+                pos[0] = end + 1;
+            } else if (c == '-' || c == '+' || c == '.' || Character.isDigit(c)) {
+                int end = pos[0] + 1;
+                while (end < wkt.length() && "0123456789.eE+-".indexOf(wkt.charAt(end)) >= 0) end++;
+                node.values.add(Double.parseDouble(wkt.substring(pos[0], end)));
+                pos[0] = end;
+            } else {
+                node.values.add(parseWord(wkt, pos));
+            }
+        }
+    }
+
+    private static void skipSpaces(String wkt, int[] pos) {
+        while (pos[0] < wkt.length() && Character.isWhitespace(wkt.charAt(pos[0]))) pos[0]++;
+    }
+
+    /**
+     * @return the first child node with keyword, or null
+     */
+    WktNode get(String keyword) {
+        for (Object value : values) {
+            if (value instanceof WktNode && ((WktNode)value).keyword.equals(keyword)) return (WktNode)value;
+        }
+        return null;
+    }
+
+    /**
+     * @return all child nodes with keyword
+     */
+    List<WktNode> getAll(String keyword) {
+        List<WktNode> nodes = new ArrayList<>();
+        for (Object value : values) {
+            if (value instanceof WktNode && ((WktNode)value).keyword.equals(keyword)) nodes.add((WktNode)value);
+        }
+        return nodes;
+    }
+
+    String getName() {
+        return values.isEmpty() || !(values.get(0) instanceof String) ? "" : (String)values.get(0);
+    }
+
+    /**
+     * @return the i-th numeric value of this node
+     * @throws IllegalArgumentException if it does not exist
+     */
+    double getNumber(int i) {
+        int count = 0;
+        for (Object value : values) {
+            if (value instanceof Double && count++ == i) return (Double)value;
+        }
+        throw new IllegalArgumentException(keyword + " has no number " + i);
+    }
+
+    int getNumberCount() {
+        int count = 0;
+        for (Object value : values) {
+            if (value instanceof Double) count++;
+        }
+        return count;
+    }
+}
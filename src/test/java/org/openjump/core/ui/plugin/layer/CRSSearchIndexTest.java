@@ -0,0 +1,85 @@
+package org.openjump.core.ui.plugin.layer;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the matching and the ranking of CRSSearchIndex.
+ */
+public class CRSSearchIndexTest {
+
+    // keys and codes as read by RegistryReader : each code, then its name
+    private static final String[] KEYS = {
+            "2154", "RGF93 / Lambert-93",
+            "21540", "Lambert 93 extended",
+            "27572", "NTF (Paris) / Lambert zone II",
+            "32631", "WGS 84 / UTM zone 31N",
+            "3857", "WGS 84 / Pseudo-Mercator",
+            "4326", "WGS 84",
+            "4807", "NTF (Paris)",
+            "5154", "Réseau géodésique"
+    };
+    private static final String[] CODES = {
+            "2154", "2154",
+            "21540", "21540",
+            "27572", "27572",
+            "32631", "32631",
+            "3857", "3857",
+            "4326", "4326",
+            "4807", "4807",
+            "5154", "5154"
+    };
+
+    private final CRSSearchIndex index = new CRSSearchIndex(KEYS, CODES);
+
+    @Test
+    public void size() {
+        assertEquals(8, index.size());
+    }
+
+    @Test
+    public void codes() {
+        // exact code first, then longer codes, then codes containing the query
+        assertEquals(Arrays.asList("2154", "21540"), index.search("2154", 10));
+        assertEquals(Arrays.asList("2154", "21540", "5154"), index.search("154", 10));
+        assertEquals(Arrays.asList("2154", "21540"), index.search("215", 2));
+    }
+
+    @Test
+    public void names() {
+        // name prefix, shortest first
+        assertEquals(Arrays.asList("WGS 84", "WGS 84 / UTM zone 31N", "WGS 84 / Pseudo-Mercator"),
+                index.search("wgs", 10));
+    }
+
+    @Test
+    public void words() {
+        List<String> results = index.search("lamb zone", 10);
+        assertEquals(Arrays.asList("NTF (Paris) / Lambert zone II"), results);
+        // name prefix before word prefix
+        results = index.search("lambert", 10);
+        assertEquals("Lambert 93 extended", results.get(0));
+        assertTrue(results.contains("RGF93 / Lambert-93"));
+    }
+
+    @Test
+    public void substrings() {
+        assertEquals(Arrays.asList("WGS 84 / Pseudo-Mercator"), index.search("mercator", 10));
+        assertEquals(Arrays.asList("32631"), index.search("263", 10));
+    }
+
+    @Test
+    public void accents() {
+        assertEquals(Arrays.asList("Réseau géodésique"), index.search("GEODES", 10));
+    }
+
+    @Test
+    public void emptyQuery() {
+        assertEquals(Arrays.asList("RGF93 / Lambert-93", "Lambert 93 extended"), index.search("", 2));
+    }
+}
@@ -0,0 +1,55 @@
+package org.openjump.core.ui.plugin.layer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the exact keys and the memory bound of CoordinateMemo.
+ */
+public class CoordinateMemoTest {
+
+    @Test
+    public void getAndPut() {
+        CoordinateMemo memo = new CoordinateMemo(1000, 1 << 20);
+        double[] result = new double[3];
+        assertFalse(memo.get(1, 2, Double.NaN, result));
+        assertTrue(memo.put(1, 2, Double.NaN, 10, 20, Double.NaN));
+        assertTrue(memo.get(1, 2, Double.NaN, result));
+        assertEquals(10, result[0], 0);
+        assertEquals(20, result[1], 0);
+        assertTrue(Double.isNaN(result[2]));
+        // the first result is kept
+        assertTrue(memo.put(1, 2, Double.NaN, 11, 21, Double.NaN));
+        memo.get(1, 2, Double.NaN, result);
+        assertEquals(10, result[0], 0);
+        assertEquals(1, memo.size());
+    }
+
+    @Test
+    public void exactKeys() {
+        CoordinateMemo memo = new CoordinateMemo(1000, 1 << 20);
+        double[] result = new double[3];
+        memo.put(0.1 + 0.2, 1, 0, 1, 1, 0);
+        assertFalse(memo.get(0.3, 1, 0, result));
+        assertFalse(memo.get(0.1 + 0.2, 1, Double.NaN, result));
+        assertTrue(memo.get(0.1 + 0.2, 1, 0, result));
+    }
+
+    @Test
+    public void bounded() {
+        CoordinateMemo memo = new CoordinateMemo(1000000, 100 * CoordinateMemo.ENTRY_BYTES * 64);
+        int remembered = 0;
+        for (int i = 0 ; i < 100000 ; i++) {
+            if (memo.put(i, i, 0, -i, -i, 0)) remembered++;
+        }
+        assertEquals(remembered, memo.size());
+        assertTrue(memo.getCapacityBytes() <= 100 * CoordinateMemo.ENTRY_BYTES * 64);
+        double[] result = new double[3];
+        for (int i = 0 ; i < 100000 ; i++) {
+            if (memo.get(i, i, 0, result)) assertEquals(-i, result[0], 0);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.openjump.core.ui.plugin.layer;
+
+import org.cts.CRSFactory;
+import org.cts.crs.CoordinateReferenceSystem;
+import org.cts.crs.GeodeticCRS;
+import org.cts.op.CoordinateOperation;
+import org.cts.op.CoordinateOperationFactory;
+import org.cts.registry.EPSGRegistry;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateFilter;
+import org.locationtech.jts.geom.Geometry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the per-coordinate CoordinateFilter formerly used by CTSPlugIn
+ * with the block-based {@link CoordinateSequenceTransformer} and the
+ * {@link KernelCoordinateTransformer}, transforming synthetic polygons from
+ * Lambert 93 (EPSG:2154) to WGS 84 (EPSG:4326).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CoordinateTransformBenchmark {
+
+    @Param({"100000"})
+    int vertices;
+
+    CoordinateOperation op;
+    CoordinateSequenceTransformer kernel;
+    List<Geometry> geometries;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CoordinateTransformBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        CRSFactory crsFactory = new CRSFactory();
+        crsFactory.getRegistryManager().addRegistry(new EPSGRegistry());
+        CoordinateReferenceSystem srcCRS = crsFactory.getCRS("EPSG:2154");
+        CoordinateReferenceSystem tgtCRS = crsFactory.getCRS("EPSG:4326");
+        op = CoordinateOperationFactory.getMostPrecise(CoordinateOperationFactory
+                .createCoordinateOperations((GeodeticCRS) srcCRS, (GeodeticCRS) tgtCRS));
+        kernel = KernelCoordinateTransformer.create(srcCRS, tgtCRS, op);
+        geometries = SyntheticData.createGeometries(SyntheticData.Type.POLYGON, vertices);
+    }
+
+    @Benchmark
+    public Geometry coordinateFilter() {
+        CoordinateFilter filter = new CoordinateFilter() {
+            @Override
+            public void filter(Coordinate coordinate) {
+                try {
+                    double[] xyz = op.transform(new double[]{coordinate.x, coordinate.y, coordinate.z});
+                    coordinate.setOrdinate(0, xyz[0]);
+                    coordinate.setOrdinate(1, xyz[1]);
+                    if (xyz.length > 2) coordinate.setOrdinate(2, xyz[2]);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        Geometry last = null;
+        for (Geometry geometry : geometries) {
+            last = geometry.copy();
+            last.apply(filter);
+            last.geometryChanged();
+        }
+        return last;
+    }
+
+    @Benchmark
+    public Geometry sequenceTransformer() {
+        return transform(new CoordinateSequenceTransformer(op));
+    }
+
+    @Benchmark
+    public Geometry kernelTransformer() {
+        return transform(kernel);
+    }
+
+    private Geometry transform(CoordinateSequenceTransformer transformer) {
+        Geometry last = null;
+        for (Geometry geometry : geometries) {
+            last = geometry.copy();
+            transformer.transform(last);
+        }
+        return last;
+    }
+}
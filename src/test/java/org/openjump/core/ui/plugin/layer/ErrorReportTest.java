@@ -0,0 +1,50 @@
+package org.openjump.core.ui.plugin.layer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the counts and the policies of ErrorReport.
+ */
+public class ErrorReportTest {
+
+    @Test
+    public void counts() {
+        ErrorReport report = new ErrorReport("layer", ErrorReport.Policy.SKIP_FEATURE);
+        assertTrue(report.isEmpty());
+        report.add(3, 103, 2);
+        report.add(3, 103, 1);
+        report.add(7, 107, 5);
+        assertFalse(report.isEmpty());
+        assertEquals(2, report.getFeatureCount());
+        assertEquals(8, report.getCoordinateCount());
+        assertEquals(2, report.getIndices().cardinality());
+        assertTrue(report.getIndices().get(7));
+        assertEquals(103, (int)report.getIds().get(0));
+    }
+
+    @Test
+    public void boundedIds() {
+        ErrorReport report = new ErrorReport("layer", ErrorReport.Policy.MARK_NAN);
+        for (int i = 0 ; i < 1000 ; i++) report.add(i, i, 1);
+        assertEquals(1000, report.getFeatureCount());
+        assertEquals(ErrorReport.MAX_IDS, report.getIds().size());
+        assertTrue(report.toString().endsWith(", ..."));
+    }
+
+    @Test
+    public void failFast() {
+        ErrorReport report = new ErrorReport("layer", ErrorReport.Policy.FAIL_FAST);
+        try {
+            report.add(0, 42, 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("42"));
+        }
+        assertEquals(1, report.getFeatureCount());
+    }
+}
@@ -0,0 +1,90 @@
+package org.openjump.core.ui.plugin.layer;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the exact transformation of dense data (scan lines covering a
+ * 10 km square, as produced by a raster to vector conversion) from Lambert 93
+ * (EPSG:2154) to WGS 84 (EPSG:4326) with the interpolation grid of
+ * {@link GridCoordinateTransformer}, with and without the cost of building
+ * the grid.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GridTransformBenchmark {
+
+    @Param({"1000000"})
+    int vertices;
+
+    @Param({"0.001", "0.01"})
+    double maxError;
+
+    ReprojectionEngine engine;
+    Envelope envelope;
+    List<Geometry> geometries;
+    GridCoordinateTransformer grid;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(GridTransformBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        engine = ReprojectionEngine.create("EPSG", "2154", "4326");
+        GeometryFactory factory = new GeometryFactory();
+        geometries = new ArrayList<>();
+        envelope = new Envelope();
+        int side = (int)Math.sqrt(vertices);
+        double step = 10000.0 / side;
+        for (int j = 0 ; j < side ; j++) {
+            Coordinate[] line = new Coordinate[side];
+            for (int i = 0 ; i < side ; i++) {
+                line[i] = new Coordinate(650000 + i * step, 6860000 + j * step);
+                envelope.expandToInclude(line[i]);
+            }
+            geometries.add(factory.createLineString(line));
+        }
+        grid = engine.approximate(envelope, maxError);
+    }
+
+    private Geometry transform(CoordinateSequenceTransformer transformer) {
+        Geometry last = null;
+        for (Geometry geometry : geometries) {
+            last = geometry.copy();
+            transformer.transform(last);
+        }
+        return last;
+    }
+
+    @Benchmark
+    public Geometry exact() {
+        return transform(engine.getTransformer());
+    }
+
+    @Benchmark
+    public Geometry grid() {
+        return transform(grid);
+    }
+
+    @Benchmark
+    public Geometry gridWithBuild() {
+        return transform(engine.approximate(envelope, maxError));
+    }
+}
@@ -0,0 +1,166 @@
+package org.openjump.core.ui.plugin.layer;
+
+import org.cts.crs.CoordinateReferenceSystem;
+import org.cts.cs.Axis;
+import org.cts.op.CoordinateOperation;
+import org.junit.Test;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that kernels are selected for the common operation chains, and that
+ * they give the same results as the CTS operations.
+ */
+public class KernelCoordinateTransformerTest {
+
+    // areas of the source points, as {west, east, south, north} in degrees
+    private static final double[] FRANCE = {-4.5, 8, 42.5, 51};
+    // UTM zone 55 south, edges included
+    private static final double[] EASTERN_AUSTRALIA = {143, 151, -60, -5};
+    private static final double[] AUSTRALIA = {113, 154, -40, -12};
+    private static final double[] ARCTIC = {-10, 10, 70, 80};
+    private static final double[] ANTARCTIC = {-10, 10, -80, -70};
+
+    @Test
+    public void lambertConformalConic() throws Exception {
+        assertEquivalent("4326", "2154", true);
+        assertEquivalent("2154", "4326", true);
+    }
+
+    @Test
+    public void transverseMercator() throws Exception {
+        assertEquivalent("4326", "32631", true);
+        assertEquivalent("32631", "4326", true);
+        assertEquivalent("2154", "32631", true);
+    }
+
+    @Test
+    public void webMercator() throws Exception {
+        assertEquivalent("4326", "3857", true);
+        assertEquivalent("3857", "4326", true);
+    }
+
+    @Test
+    public void helmert() throws Exception {
+        // ED50 has a Helmert shift to WGS 84 in the EPSG registry
+        assertEquivalent("4326", "23031", true);
+        assertEquivalent("23031", "2154", false);
+    }
+
+    @Test
+    public void southernTransverseMercator() throws Exception {
+        assertEquivalent("4326", "32755", EASTERN_AUSTRALIA, true);
+        assertEquivalent("32755", "4326", EASTERN_AUSTRALIA, true);
+    }
+
+    @Test
+    public void southernLambertConformalConic() throws Exception {
+        // GDA94 / Geoscience Australia Lambert, standard parallels 18S and 36S
+        assertEquivalent("4326", "3112", AUSTRALIA, true);
+        assertEquivalent("3112", "4326", AUSTRALIA, true);
+    }
+
+    @Test
+    public void highLatitudeMercator() throws Exception {
+        assertEquivalent("4326", "3395", ARCTIC, true);
+        assertEquivalent("4326", "3395", ANTARCTIC, true);
+        assertEquivalent("4326", "3857", ARCTIC, true);
+        assertEquivalent("3857", "4326", ANTARCTIC, true);
+    }
+
+    @Test
+    public void unsupportedChain() throws Exception {
+        // NTF to RGF93 uses a grid : results must match even without kernel
+        assertEquivalent("27572", "2154", false);
+    }
+
+    @Test
+    public void outOfDomain() throws Exception {
+        CRSCache cache = CRSCache.getInstance();
+        CoordinateReferenceSystem srcCRS = cache.getCRS("EPSG", "4326");
+        CoordinateReferenceSystem tgtCRS = cache.getCRS("EPSG", "2154");
+        CoordinateOperation op = cache.getOperation(srcCRS, tgtCRS);
+        CoordinateSequenceTransformer transformer = KernelCoordinateTransformer.create(srcCRS, tgtCRS, op);
+        assertTrue(transformer instanceof KernelCoordinateTransformer);
+        boolean latFirst = srcCRS.getCoordinateSystem().getAxis(0) == Axis.LATITUDE;
+        // a latitude beyond the pole, to which the kernel gives finite
+        // coordinates, between two valid points
+        double[][] lonLat = {{3, 46.5}, {3, 95}, {2, 48}};
+        double[] ordinates = new double[2 * lonLat.length];
+        for (int i = 0 ; i < lonLat.length ; i++) {
+            ordinates[2 * i] = latFirst ? lonLat[i][1] : lonLat[i][0];
+            ordinates[2 * i + 1] = latFirst ? lonLat[i][0] : lonLat[i][1];
+        }
+        CoordinateSequence seq = new PackedCoordinateSequence.Double(ordinates, 2, 0);
+        long threadFailures = CoordinateSequenceTransformer.getThreadFailureCount();
+        transformer.transform(seq);
+        assertEquals(700000, seq.getX(0), 1e-3);
+        assertEquals(6600000, seq.getY(0), 1e-3);
+        assertTrue(Double.isNaN(seq.getX(1)) && Double.isNaN(seq.getY(1)));
+        assertFalse(Double.isNaN(seq.getX(2)));
+        assertEquals(1, transformer.getFailureCount());
+        assertEquals(1, CoordinateSequenceTransformer.getThreadFailureCount() - threadFailures);
+    }
+
+    /**
+     * Transforms a grid of points over France from src to tgt with the
+     * transformer selected for the operation, and compares the results with
+     * the CTS operation.
+     */
+    private void assertEquivalent(String src, String tgt, boolean kernelExpected) throws Exception {
+        assertEquivalent(src, tgt, FRANCE, kernelExpected);
+    }
+
+    /**
+     * Same as {@link #assertEquivalent(String, String, boolean)} over area,
+     * as {west, east, south, north} in degrees.
+     */
+    private void assertEquivalent(String src, String tgt, double[] area, boolean kernelExpected) throws Exception {
+        CRSCache cache = CRSCache.getInstance();
+        CoordinateReferenceSystem srcCRS = cache.getCRS("EPSG", src);
+        CoordinateReferenceSystem tgtCRS = cache.getCRS("EPSG", tgt);
+        CoordinateOperation op = cache.getOperation(srcCRS, tgtCRS);
+        CoordinateSequenceTransformer transformer = KernelCoordinateTransformer.create(srcCRS, tgtCRS, op);
+        if (kernelExpected) {
+            assertTrue("No kernel selected from " + src + " to " + tgt,
+                    transformer instanceof KernelCoordinateTransformer);
+        }
+
+        CoordinateSequence seq = createSourcePoints(srcCRS, area, 50);
+        double[][] expected = new double[seq.size()][];
+        for (int i = 0 ; i < seq.size() ; i++) {
+            expected[i] = op.transform(new double[]{seq.getX(i), seq.getY(i), 0});
+        }
+        transformer.transform(seq);
+        boolean geographic = tgtCRS.getProjection() == null;
+        double tolerance = geographic ? 1e-8 : 1e-3;
+        for (int i = 0 ; i < seq.size() ; i++) {
+            assertEquals(src + " -> " + tgt + " x of point " + i, expected[i][0], seq.getX(i), tolerance);
+            assertEquals(src + " -> " + tgt + " y of point " + i, expected[i][1], seq.getY(i), tolerance);
+        }
+        assertEquals(0, transformer.getFailureCount());
+    }
+
+    private CoordinateSequence createSourcePoints(CoordinateReferenceSystem srcCRS, double[] area, int side)
+            throws Exception {
+        CRSCache cache = CRSCache.getInstance();
+        CoordinateReferenceSystem wgs84 = cache.getCRS("EPSG", "4326");
+        boolean latFirst = wgs84.getCoordinateSystem().getAxis(0) == Axis.LATITUDE;
+        CoordinateOperation op = cache.getOperation(wgs84, srcCRS);
+        double[] ordinates = new double[2 * side * side];
+        for (int i = 0 ; i < side ; i++) {
+            for (int j = 0 ; j < side ; j++) {
+                double lon = area[0] + (area[1] - area[0]) * i / (side - 1);
+                double lat = area[2] + (area[3] - area[2]) * j / (side - 1);
+                double[] xy = op.transform(latFirst ? new double[]{lat, lon, 0} : new double[]{lon, lat, 0});
+                ordinates[2 * (i * side + j)] = xy[0];
+                ordinates[2 * (i * side + j) + 1] = xy[1];
+            }
+        }
+        return new PackedCoordinateSequence.Double(ordinates, 2, 0);
+    }
+}
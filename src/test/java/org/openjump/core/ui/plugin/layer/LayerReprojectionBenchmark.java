@@ -0,0 +1,50 @@
+package org.openjump.core.ui.plugin.layer;
+
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.task.DummyTaskMonitor;
+import org.locationtech.jts.geom.Geometry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the reprojection of a whole synthetic layer from Lambert 93
+ * (EPSG:2154) to WGS 84 (EPSG:4326), as done by CTSPlugIn.commitChanges,
+ * with one thread or all available processors.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class LayerReprojectionBenchmark {
+
+    @Param({"POINT", "LINE", "POLYGON"})
+    SyntheticData.Type type;
+
+    @Param({"10000", "1000000", "10000000"})
+    int vertices;
+
+    @Param({"false", "true"})
+    boolean parallel;
+
+    ReprojectionEngine engine;
+    List<Feature> features;
+
+    @Setup
+    public void setup() throws Exception {
+        engine = ReprojectionEngine.create("EPSG", "2154", "4326");
+        features = SyntheticData.createFeatures(type, vertices);
+    }
+
+    @Benchmark
+    public List<Geometry> reprojectLayer() throws Exception {
+        int threads = parallel ? Runtime.getRuntime().availableProcessors() : 1;
+        try (ParallelGeometryTransformer transformer =
+                     new ParallelGeometryTransformer(engine.getTransformer(), threads, false)) {
+            return transformer.transform(features, engine.getTargetSRID(), new DummyTaskMonitor());
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.openjump.core.ui.plugin.layer;
+
+import com.vividsolutions.jump.feature.AttributeType;
+import com.vividsolutions.jump.feature.BasicFeature;
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureSchema;
+import com.vividsolutions.jump.task.DummyTaskMonitor;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the error policies through ParallelGeometryTransformer, with copies
+ * and in place, on enough features to be split into concurrent chunks.
+ */
+public class ParallelGeometryTransformerTest {
+
+    private static final GeometryFactory FACTORY = new GeometryFactory();
+    private static final int COUNT = 10 * ParallelGeometryTransformer.CHUNK_SIZE + 17;
+    // every FAILURE_STEP-th feature cannot be transformed
+    private static final int FAILURE_STEP = 997;
+
+    /**
+     * Shifts x by 1000, negative x being out of its domain.
+     */
+    private static final class ShiftTransformer extends CoordinateSequenceTransformer {
+
+        ShiftTransformer() {
+            super(null);
+        }
+
+        @Override
+        public void transform(CoordinateSequence seq) {
+            for (int i = 0 ; i < seq.size() ; i++) {
+                if (seq.getX(i) < 0) {
+                    seq.setOrdinate(i, CoordinateSequence.X, Double.NaN);
+                    seq.setOrdinate(i, CoordinateSequence.Y, Double.NaN);
+                    countThreadFailures(1);
+                } else {
+                    seq.setOrdinate(i, CoordinateSequence.X, seq.getX(i) + 1000);
+                }
+            }
+        }
+    }
+
+    private static boolean fails(int i) {
+        return i % FAILURE_STEP == 0;
+    }
+
+    private static List<Feature> features() {
+        FeatureSchema schema = new FeatureSchema();
+        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        List<Feature> features = new ArrayList<>(COUNT);
+        for (int i = 0 ; i < COUNT ; i++) {
+            Feature feature = new BasicFeature(schema);
+            feature.setGeometry(FACTORY.createPoint(new Coordinate(fails(i) ? -i : i, i)));
+            features.add(feature);
+        }
+        return features;
+    }
+
+    private static double getX(Geometry geometry) {
+        return geometry.getCoordinate().x;
+    }
+
+    @Test
+    public void skipFeature() throws Exception {
+        List<Feature> features = features();
+        ErrorReport report = new ErrorReport("layer", ErrorReport.Policy.SKIP_FEATURE);
+        try (ParallelGeometryTransformer transformer = new ParallelGeometryTransformer(4, false)) {
+            List<Geometry> result = transformer.transform(features, new ShiftTransformer(), 2154, report,
+                    new DummyTaskMonitor());
+            assertEquals(COUNT, result.size());
+            for (int i = 0 ; i < COUNT ; i++) {
+                if (fails(i)) {
+                    // a copy of the source geometry, which keeps its SRID
+                    assertNotSame(features.get(i).getGeometry(), result.get(i));
+                    assertEquals(-i, getX(result.get(i)), 0);
+                    assertEquals(0, result.get(i).getSRID());
+                } else {
+                    assertEquals(i + 1000, getX(result.get(i)), 0);
+                    assertEquals(2154, result.get(i).getSRID());
+                }
+                assertEquals(fails(i) ? -i : i, getX(features.get(i).getGeometry()), 0);
+            }
+        }
+        assertEquals((COUNT - 1) / FAILURE_STEP + 1, report.getFeatureCount());
+    }
+
+    @Test
+    public void skipFeatureInPlace() throws Exception {
+        List<Feature> features = features();
+        GeometrySnapshot snapshot = GeometrySnapshot.take(features, true);
+        ErrorReport report = new ErrorReport("layer", ErrorReport.Policy.SKIP_FEATURE);
+        try (ParallelGeometryTransformer transformer = new ParallelGeometryTransformer(4, true)) {
+            transformer.transform(features, new ShiftTransformer(), 2154, report, new DummyTaskMonitor());
+        }
+        // done by the caller in place, as in CTSPlugIn
+        snapshot.restore(features, report.getIndices());
+        for (int i = 0 ; i < COUNT ; i++) {
+            double x = getX(features.get(i).getGeometry());
+            assertEquals(fails(i) ? -i : i + 1000, x, 0);
+        }
+    }
+
+    @Test
+    public void markNaN() throws Exception {
+        List<Feature> features = features();
+        ErrorReport report = new ErrorReport("layer", ErrorReport.Policy.MARK_NAN);
+        try (ParallelGeometryTransformer transformer = new ParallelGeometryTransformer(4, false)) {
+            List<Geometry> result = transformer.transform(features, new ShiftTransformer(), 2154, report,
+                    new DummyTaskMonitor());
+            for (int i = 0 ; i < COUNT ; i++) {
+                if (fails(i)) assertTrue(Double.isNaN(getX(result.get(i))));
+                else assertEquals(i + 1000, getX(result.get(i)), 0);
+            }
+        }
+        assertEquals((COUNT - 1) / FAILURE_STEP + 1, report.getFeatureCount());
+    }
+
+    @Test
+    public void failFastRollback() throws Exception {
+        List<Feature> features = features();
+        GeometrySnapshot snapshot = GeometrySnapshot.take(features, true);
+        ErrorReport report = new ErrorReport("layer", ErrorReport.Policy.FAIL_FAST);
+        try (ParallelGeometryTransformer transformer = new ParallelGeometryTransformer(4, true)) {
+            transformer.transform(features, new ShiftTransformer(), 2154, report, new DummyTaskMonitor());
+            fail();
+        } catch (IllegalArgumentException e) {
+            // no chunk may still be running : the restored features must
+            // not be modified any more
+            snapshot.restore(features);
+        }
+        Thread.sleep(100);
+        for (int i = 0 ; i < COUNT ; i++) {
+            assertEquals(fails(i) ? -i : i, getX(features.get(i).getGeometry()), 0);
+        }
+    }
+}
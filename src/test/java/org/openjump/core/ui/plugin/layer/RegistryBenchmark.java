@@ -0,0 +1,74 @@
+package org.openjump.core.ui.plugin.layer;
+
+import org.cts.CRSFactory;
+import org.cts.Identifier;
+import org.cts.crs.CoordinateReferenceSystem;
+import org.cts.crs.GeodeticCRS;
+import org.cts.op.CoordinateOperation;
+import org.cts.op.CoordinateOperationFactory;
+import org.cts.registry.EPSGRegistry;
+import org.cts.registry.IGNFRegistry;
+import org.cts.registry.RegistryManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the set-up costs of a reprojection : registry parsing, CRS lookup
+ * and operation selection, with and without {@link CRSCache}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RegistryBenchmark {
+
+    @Param({"EPSG", "IGNF"})
+    String registry;
+
+    String srcCode;
+    String tgtCode;
+    CoordinateReferenceSystem srcCRS;
+    CoordinateReferenceSystem tgtCRS;
+
+    @Setup
+    public void setup() throws Exception {
+        srcCode = registry.equals("EPSG") ? "2154" : "LAMB93";
+        tgtCode = registry.equals("EPSG") ? "4326" : "WGS84G";
+        srcCRS = CRSCache.getInstance().getCRS(registry, srcCode);
+        tgtCRS = CRSCache.getInstance().getCRS(registry, tgtCode);
+    }
+
+    @Benchmark
+    public Map<String,String> readRegistry() throws Exception {
+        return RegistryReader.read(registry);
+    }
+
+    @Benchmark
+    public CoordinateReferenceSystem lookupCRS() throws Exception {
+        CRSFactory crsFactory = new CRSFactory();
+        RegistryManager registryManager = crsFactory.getRegistryManager();
+        registryManager.addRegistry(registry.equals("EPSG") ? new EPSGRegistry() : new IGNFRegistry());
+        return registryManager.getRegistry(registry)
+                .getCoordinateReferenceSystem(new Identifier(registry, srcCode, null));
+    }
+
+    @Benchmark
+    public CoordinateReferenceSystem lookupCachedCRS() throws Exception {
+        return CRSCache.getInstance().getCRS(registry, srcCode);
+    }
+
+    @Benchmark
+    public CoordinateOperation selectOperation() throws Exception {
+        return CoordinateOperationFactory.getMostPrecise(CoordinateOperationFactory
+                .createCoordinateOperations((GeodeticCRS) srcCRS, (GeodeticCRS) tgtCRS));
+    }
+
+    @Benchmark
+    public CoordinateOperation selectCachedOperation() throws Exception {
+        return CRSCache.getInstance().getOperation(srcCRS, tgtCRS);
+    }
+}
@@ -0,0 +1,68 @@
+package org.openjump.core.ui.plugin.layer;
+
+import com.vividsolutions.jump.feature.AttributeType;
+import com.vividsolutions.jump.feature.BasicFeature;
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureSchema;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic datasets in Lambert 93 (EPSG:2154) coordinates, scattered over
+ * metropolitan France, used by benchmarks.
+ */
+class SyntheticData {
+
+    enum Type {POINT, LINE, POLYGON}
+
+    private static final GeometryFactory FACTORY = new GeometryFactory();
+
+    /**
+     * Creates geometries of type with about vertices vertices in total.
+     * Lines and polygons have 100 vertices each.
+     */
+    static List<Geometry> createGeometries(Type type, int vertices) {
+        Random random = new Random(0);
+        List<Geometry> list = new ArrayList<>();
+        int size = type == Type.POINT ? 1 : 100;
+        for (int n = 0 ; n < vertices / size ; n++) {
+            double x0 = 100000 + random.nextDouble() * 1000000;
+            double y0 = 6100000 + random.nextDouble() * 1000000;
+            if (type == Type.POINT) {
+                list.add(FACTORY.createPoint(new Coordinate(x0, y0)));
+            } else if (type == Type.LINE) {
+                Coordinate[] line = new Coordinate[size];
+                for (int i = 0 ; i < size ; i++) {
+                    line[i] = new Coordinate(x0 + 10 * i, y0 + 10 * Math.sin(i));
+                }
+                list.add(FACTORY.createLineString(line));
+            } else {
+                Coordinate[] ring = new Coordinate[size];
+                for (int i = 0 ; i < size - 1 ; i++) {
+                    double angle = 2 * Math.PI * i / (size - 1);
+                    ring[i] = new Coordinate(x0 + 50 * Math.cos(angle), y0 + 50 * Math.sin(angle));
+                }
+                ring[size - 1] = new Coordinate(ring[0]);
+                list.add(FACTORY.createPolygon(ring));
+            }
+        }
+        return list;
+    }
+
+    static List<Feature> createFeatures(Type type, int vertices) {
+        FeatureSchema schema = new FeatureSchema();
+        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        List<Feature> features = new ArrayList<>();
+        for (Geometry geometry : createGeometries(type, vertices)) {
+            Feature feature = new BasicFeature(schema);
+            feature.setGeometry(geometry);
+            features.add(feature);
+        }
+        return features;
+    }
+}
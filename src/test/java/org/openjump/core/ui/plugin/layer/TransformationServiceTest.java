@@ -0,0 +1,98 @@
+package org.openjump.core.ui.plugin.layer;
+
+import org.cts.crs.CoordinateReferenceSystem;
+import org.cts.cs.Axis;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the shared service resolves each engine once, and that batches
+ * and concurrent calls give the same results as single transformations.
+ */
+public class TransformationServiceTest {
+
+    private static final GeometryFactory FACTORY = new GeometryFactory();
+
+    /**
+     * @return a point of EPSG:4326, in the axis order of the CTS definition
+     */
+    private static Geometry point(double lon, double lat) throws Exception {
+        CoordinateReferenceSystem wgs84 = CRSCache.getInstance().getCRS("EPSG", "4326");
+        boolean latFirst = wgs84.getCoordinateSystem().getAxis(0) == Axis.LATITUDE;
+        return FACTORY.createPoint(latFirst ? new Coordinate(lat, lon) : new Coordinate(lon, lat));
+    }
+
+    private static List<Geometry> points(int count) throws Exception {
+        List<Geometry> points = new ArrayList<>(count);
+        for (int i = 0 ; i < count ; i++) {
+            // metropolitan France, in degrees
+            points.add(point(-4 + 11.0 * i / count, 43 + 7.0 * i / count));
+        }
+        return points;
+    }
+
+    @Test
+    public void referencePoint() throws Exception {
+        TransformationService service = new TransformationService(4, 2);
+        // origin of Lambert 93 : 3E 46.5N, with false easting and northing
+        Geometry origin = service.transform(point(3, 46.5), "EPSG:4326", "EPSG:2154");
+        assertEquals(700000, origin.getCoordinate().x, 0.01);
+        assertEquals(6600000, origin.getCoordinate().y, 0.01);
+        assertEquals(2154, origin.getSRID());
+    }
+
+    @Test
+    public void sharedEngine() throws Exception {
+        TransformationService service = new TransformationService(4, 2);
+        assertSame(service.getEngine("EPSG:4326", "EPSG:2154"), service.getEngine("epsg:4326", "EPSG:2154"));
+        assertEquals(1, service.getEngineCount());
+        assertSame(service.getCoordinateSystem("EPSG:2154"), service.getCoordinateSystem("EPSG:2154"));
+    }
+
+    @Test
+    public void batch() throws Exception {
+        TransformationService service = new TransformationService(4, 4);
+        List<Geometry> points = points(5 * TransformationService.CHUNK_SIZE + 17);
+        List<Geometry> batch = service.transform(points, "EPSG:4326", "EPSG:2154");
+        assertEquals(points.size(), batch.size());
+        for (int i = 0 ; i < points.size() ; i += 97) {
+            Geometry single = service.transform(points.get(i), "EPSG:4326", "EPSG:2154");
+            assertTrue(single.equalsExact(batch.get(i), 0));
+            assertEquals(2154, batch.get(i).getSRID());
+        }
+    }
+
+    @Test
+    public void concurrentCallers() throws Exception {
+        final TransformationService service = new TransformationService(4, 2);
+        final List<Geometry> points = points(3 * TransformationService.CHUNK_SIZE);
+        final List<Geometry> expected = service.transform(points, "EPSG:4326", "EPSG:3857");
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<Geometry>>> futures = new ArrayList<>();
+            for (int i = 0 ; i < 8 ; i++) {
+                futures.add(callers.submit(() -> service.transform(points, "EPSG:4326", "EPSG:3857")));
+            }
+            for (Future<List<Geometry>> future : futures) {
+                List<Geometry> result = future.get();
+                for (int i = 0 ; i < result.size() ; i++) {
+                    assertTrue(expected.get(i).equalsExact(result.get(i), 0));
+                }
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+}